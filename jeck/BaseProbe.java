@@ -0,0 +1,65 @@
+package jeck;
+
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * Detects the modifications of a base list, for the positions cached by
+ * {@link FilteredList} and {@link Partition}.
+ * <p>
+ * Modifications are detected through an iterator on the list (like a
+ * fail-fast iterator would, or by the size of the list), so they must
+ * invalidate its iterators: replacing elements isn't detected.
+ *
+ * @author Reda El Khattabi
+ */
+class BaseProbe<E> {
+
+	private List<E> list;
+
+	// fails (or changes size) when the list is modified, null when stopped
+	private ListIterator<E> iterator;
+	private int size;
+
+	BaseProbe(List<E> list) {
+		this.list = list;
+	}
+
+	/**
+	 * accepts the current contents of the list.
+	 */
+	void start() {
+		this.iterator = this.list.listIterator();
+		this.size = this.list.size();
+	}
+
+	void stop() {
+		this.iterator = null;
+	}
+
+	boolean running() {
+		return this.iterator != null;
+	}
+
+	/**
+	 * @return whether the list was modified since the probe was started
+	 *         (false if it isn't running).
+	 */
+	boolean modified() {
+		if (this.iterator == null)
+			return false;
+		try {
+			// (moving back and forth, to avoid running out of elements)
+			if (this.list.size() != this.size)
+				return true;
+			else if (this.iterator.hasNext())
+				this.iterator.next();
+			else if (this.iterator.hasPrevious())
+				this.iterator.previous();
+			return false;
+		} catch (ConcurrentModificationException e) {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package jeck;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+/**
+ * Records fetched by a single call to {@link FetchList#fetch(int)} (or
+ * {@link ConcurrentFetchList#fetch(int)}), and the error that stopped it, if
+ * any.
+ * <p>
+ * The error is kept with the records fetched before it, and the list only
+ * throws it when it needs the record that failed: the records before it can
+ * be read first.
+ *
+ * @author Reda El Khattabi
+ */
+class Batch<T> {
+
+	final List<T> elements;
+
+	final RuntimeException error;
+
+	Batch(List<T> elements, RuntimeException error) {
+		this.elements = elements;
+		this.error = error;
+	}
+
+	/**
+	 * the default <code>fetch(int)</code>: gets elements until there are
+	 * <code>max</code> of them, or no more of them.
+	 *
+	 * @throws RuntimeException
+	 *             the error of the first element (an error after some
+	 *             elements is kept in the batch).
+	 */
+	static <T> Batch<T> read(Supplier<? extends T> fetch, int max) {
+		List<T> l = new ArrayList<T>(Math.min(max, 16));
+		try {
+			while (l.size() < max)
+				l.add(fetch.get());
+		} catch (NoSuchElementException e) {
+		} catch (RuntimeException e) {
+			if (l.isEmpty())
+				throw e;
+			return new Batch<T>(l, e);
+		}
+		return new Batch<T>(l, null);
+	}
+}
@@ -0,0 +1,247 @@
+package jeck;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * A read-only counterpart of {@link FetchList}, that can be shared between
+ * threads.
+ * <p>
+ * Elements are fetched the same way (using {@link #fetch()}, or
+ * {@link #fetch(int)} for batches, and {@link #count()}), but reading elements
+ * that are already fetched never takes a lock. Only one thread at a time
+ * fetches more elements: threads needing elements that are not fetched yet
+ * register how far they need the list to be fetched, so that the fetching
+ * thread can fetch them all in the same batches, instead of each thread
+ * fetching its own. Like for {@link FetchList}, an error is thrown to the
+ * thread needing the record that failed (not to the one fetching the batch),
+ * after the records fetched before it.
+ * <p>
+ * The list can't be modified.
+ *
+ * @author Reda El Khattabi
+ */
+public abstract class ConcurrentFetchList<T> extends AbstractList<T>
+		implements RandomAccess {
+
+	private static final int CHUNK_BITS = 12;
+
+	// fetched elements, by chunks of 2^CHUNK_BITS
+	private volatile Object[][] chunks;
+
+	// published only after the elements are stored
+	private volatile int fetched;
+
+	// -1 = not counted, -2 = uncountable
+	private volatile int tofetch;
+
+	private volatile boolean end;
+
+	// the furthest element requested so far
+	private AtomicInteger wanted;
+
+	private ReentrantLock lock;
+
+	// guarded by lock
+	private int batch;
+	// thrown once a thread needs the element that failed
+	private RuntimeException error;
+	// left by the default fetch(int) for fetch_batch()
+	private RuntimeException batch_error;
+
+	public ConcurrentFetchList() {
+		this.chunks = new Object[16][];
+		this.fetched = 0;
+		this.tofetch = -1;
+		this.end = false;
+		this.wanted = new AtomicInteger(-1);
+		this.lock = new ReentrantLock();
+		this.batch = 1;
+	}
+
+	/**
+	 * @see FetchList#fetch()
+	 */
+	protected abstract T fetch() throws NoSuchElementException;
+
+	/**
+	 * @see FetchList#fetch(int)
+	 */
+	protected List<T> fetch(int max) {
+		Batch<T> b = Batch.read(new Supplier<T>() {
+			@Override
+			public T get() {
+				return ConcurrentFetchList.this.fetch();
+			}
+		}, max);
+		this.batch_error = b.error;
+		return b.elements;
+	}
+
+	/**
+	 * calls {@link #fetch(int)}, keeping its error with the records instead
+	 * of throwing it. must hold the lock.
+	 */
+	private Batch<T> fetch_batch(int max) {
+		this.batch_error = null;
+		try {
+			List<T> l = this.fetch(max);
+			return new Batch<T>(l, this.batch_error);
+		} catch (RuntimeException e) {
+			return new Batch<T>(new ArrayList<T>(), e);
+		} finally {
+			this.batch_error = null;
+		}
+	}
+
+	/**
+	 * @see FetchList#max_batch()
+	 */
+	protected int max_batch() {
+		return 1;
+	}
+
+	/**
+	 * @see FetchList#count()
+	 */
+	protected abstract int count() throws UnsupportedOperationException;
+
+	@SuppressWarnings("unchecked")
+	private T element(int i) {
+		return (T) this.chunks[i >>> ConcurrentFetchList.CHUNK_BITS][i
+				& ((1 << ConcurrentFetchList.CHUNK_BITS) - 1)];
+	}
+
+	/**
+	 * fetches (at most) n records and publishes them, leaving their error (if
+	 * any) to the thread that needs the record that failed. must hold the
+	 * lock.
+	 */
+	private void fetch_some(int n) {
+		if (this.tofetch >= 0)
+			n = Math.min(n, this.tofetch - this.fetched);
+		if (n <= 0) {
+			this.end = true;
+			return;
+		}
+		Batch<T> b = this.fetch_batch(n);
+		List<T> l = b.elements;
+		Object[][] chunks = this.chunks;
+		int size = this.fetched;
+		for (T t : l) {
+			int chunk = size >>> ConcurrentFetchList.CHUNK_BITS;
+			if (chunk == chunks.length)
+				chunks = Arrays.copyOf(chunks, chunk * 2);
+			if (chunks[chunk] == null)
+				chunks[chunk] = new Object[1 << ConcurrentFetchList.CHUNK_BITS];
+			chunks[chunk][size & ((1 << ConcurrentFetchList.CHUNK_BITS) - 1)] = t;
+			++size;
+		}
+		this.chunks = chunks;
+		this.fetched = size;
+		if (b.error != null)
+			this.error = b.error;
+		else if (l.size() < n)
+			this.end = true;
+	}
+
+	/**
+	 * fetches records until we can access element i, or finds out there is
+	 * no such element.
+	 */
+	private void fetch_until(int i) {
+		int wanted = this.wanted.get();
+		while (wanted < i && !this.wanted.compareAndSet(wanted, i))
+			wanted = this.wanted.get();
+		this.lock.lock();
+		try {
+			while (this.fetched <= i && !this.end) {
+				if (this.error != null) {
+					RuntimeException e = this.error;
+					this.error = null;
+					throw e;
+				}
+				int target = Math.max(i, this.wanted.get());
+				int n = Math.min(Math.max(target + 1 - this.fetched,
+						this.batch), Math.max(1, this.max_batch()));
+				this.batch = Math.max(1,
+						Math.min(this.batch * 2, this.max_batch()));
+				this.fetch_some(n);
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	@Override
+	public T get(int i) {
+		if (i < 0)
+			throw new IndexOutOfBoundsException("negative index");
+		if (i >= this.fetched) {
+			this.fetch_until(i);
+			if (i >= this.fetched)
+				throw new IndexOutOfBoundsException();
+		}
+		return this.element(i);
+	}
+
+	@Override
+	public int size() {
+		if (this.end)
+			return this.fetched;
+		if (this.tofetch == -1) {
+			this.lock.lock();
+			try {
+				if (this.tofetch == -1)
+					try {
+						this.tofetch = this.count();
+					} catch (UnsupportedOperationException e) {
+						this.tofetch = -2;
+					}
+			} finally {
+				this.lock.unlock();
+			}
+		}
+		if (this.tofetch == -2)
+			this.fetch_until(Integer.MAX_VALUE - 1);
+		return this.end ? this.fetched : this.tofetch;
+	}
+
+	/**
+	 * Iterates without requiring the size of the list.
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				if (this.next < ConcurrentFetchList.this.fetched)
+					return true;
+				ConcurrentFetchList.this.fetch_until(this.next);
+				return this.next < ConcurrentFetchList.this.fetched;
+			}
+
+			@Override
+			public T next() {
+				if (!this.hasNext())
+					throw new NoSuchElementException();
+				return ConcurrentFetchList.this.element(this.next++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -1,11 +1,30 @@
 package jeck;
 
 import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * This list will only retreive elements when needed. if {@link #count()} is
@@ -14,7 +33,6 @@ import java.util.NoSuchElementException;
  * 
  * @author Reda El Khattabi
  */
-// FIXME loop without requiring size
 public abstract class FetchList<T> extends AbstractList<T> {
 
 	// -1 = not counted, -2 = uncountable
@@ -24,13 +42,107 @@ public abstract class FetchList<T> extends AbstractList<T> {
 
 	private List<T> fetched;
 
-	private Map<Integer, T> to_add;
+	// same as data, when fetched elements are spilled (see spill())
+	private PatchList<T> patch;
+
+	// elements added after the fetched ones
+	private Pending<T> to_add;
+
+	// (number in data) - (number in fetched), for elements where it's not 0
+	private Map<T, Integer> changes;
+
+	// elements of data added or replaced since the last flush, by index
+	private List<Mark<T>> marks;
+
+	// elements removed since the last flush (their flushed value)
+	private List<T> dropped;
+
+	// flushed values of the replaced originals, until the next flush
+	private Map<Integer, T> replaced_old;
+
+	// size of the next batch, grows as the list is read further
+	private int batch;
+
+	// read-ahead: elements fetched in the background, not added to the list yet
+	private Executor ahead_executor;
+	private int ahead_window;
+	private Deque<T> ahead;
+	private FutureTask<Batch<T>> ahead_task;
+	private int ahead_requested;
+	private boolean ahead_end;
+
+	// count() running in the background, see count_ahead()
+	private FutureTask<Integer> count_task;
+
+	// thrown once the elements fetched before it are added to the list
+	private RuntimeException error;
+
+	// left by the default fetch(int) for fetch_batch(), on the thread calling it
+	private RuntimeException batch_error;
+
+	// 0 = unknown, 1 = fetch(offset, max) supported, -1 = unsupported
+	private int seek;
+
+	// original elements beyond the fetched ones, by page number (LRU order)
+	private Map<Integer, List<T>> pages;
+
+	// number of elements in pages, and the most we can keep (0 = no limit)
+	private int paged;
+	private int window;
+
+	// replacements for original elements beyond the fetched ones, by index
+	private Map<Integer, T> replaced;
+
+	/**
+	 * Receives the changes made to a list, see {@link FetchList#flush}.<br>
+	 * indexes are those of the elements in the list as it is when flushed.
+	 */
+	public static interface Sink<T> {
+
+		/**
+		 * elements removed from the list.
+		 */
+		void delete(List<T> elements);
+
+		/**
+		 * elements replaced, by increasing index.
+		 */
+		void update(int[] indexes, List<T> old, List<T> elements);
+
+		/**
+		 * elements added, by increasing index.
+		 */
+		void insert(int[] indexes, List<T> elements);
+	}
+
+	/**
+	 * an element of data that was added (or replaced) since the last flush.
+	 */
+	private static class Mark<T> {
+		private int index;
+		private boolean added;
+		// the flushed value of a replaced element
+		private T old;
+
+		public Mark(int index, boolean added, T old) {
+			this.index = index;
+			this.added = added;
+			this.old = old;
+		}
+	}
 
 	public FetchList() {
 		this.tofetch = -1;
 		this.data = new ArrayList<T>();
 		this.fetched = new ArrayList<T>();
-		this.to_add = new HashMap<Integer, T>();
+		this.to_add = new Pending<T>();
+		this.changes = new LinkedHashMap<T, Integer>();
+		this.marks = new ArrayList<Mark<T>>();
+		this.dropped = new ArrayList<T>();
+		this.replaced_old = new HashMap<Integer, T>();
+		this.batch = 1;
+		this.pages = new LinkedHashMap<Integer, List<T>>(16, 0.75f, true);
+		this.replaced = new HashMap<Integer, T>();
 	}
 
 	/**
@@ -44,6 +156,92 @@ public abstract class FetchList<T> extends AbstractList<T> {
 	 */
 	protected abstract T fetch() throws NoSuchElementException;
 
+	/**
+	 * fetches up to <code>max</code> elements from the actual data source, in
+	 * a single round-trip if possible.<br>
+	 * returning less than <code>max</code> elements means there are no more
+	 * elements to fetch.<br>
+	 * the default implementation calls {@link #fetch()} until it has enough
+	 * elements (if it fails after some elements, they are returned and the
+	 * error is thrown when the list reaches it). sources that support batching
+	 * should redefine it, along with {@link #max_batch()}.
+	 * 
+	 * @return the next (at most <code>max</code>) elements to be added to the
+	 *         list.
+	 * @throws TransactionException
+	 *             on error
+	 */
+	protected List<T> fetch(int max) {
+		Batch<T> b = Batch.read(new Supplier<T>() {
+			@Override
+			public T get() {
+				return FetchList.this.fetch();
+			}
+		}, max);
+		this.batch_error = b.error;
+		return b.elements;
+	}
+
+	/**
+	 * calls {@link #fetch(int)}, keeping its error with the records instead
+	 * of throwing it (so it can run in the background without touching the
+	 * list).
+	 */
+	private Batch<T> fetch_batch(int max) {
+		this.batch_error = null;
+		try {
+			List<T> l = this.fetch(max);
+			return new Batch<T>(l, this.batch_error);
+		} catch (RuntimeException e) {
+			return new Batch<T>(new ArrayList<T>(), e);
+		} finally {
+			this.batch_error = null;
+		}
+	}
+
+	/**
+	 * {@link #fetch_batch(int)}, leaving its error to be thrown when the list
+	 * reaches it.
+	 */
+	private List<T> fetch_now(int max) {
+		Batch<T> b = this.fetch_batch(max);
+		if (b.error != null)
+			this.error = b.error;
+		return b.elements;
+	}
+
+	/**
+	 * the largest number of elements the list will fetch ahead of what is
+	 * actually read.<br>
+	 * the batch size starts at 1 and doubles every time the list has to fetch
+	 * further, up to this value, so full scans use large batches while point
+	 * reads stay cheap.<br>
+	 * the default (1) never fetches elements before they are needed.
+	 */
+	protected int max_batch() {
+		return 1;
+	}
+
+	/**
+	 * fetches up to <code>max</code> elements from the actual data source,
+	 * starting at the given index of the "original data" (such as an
+	 * OFFSET/LIMIT query).<br>
+	 * this is independent from {@link #fetch()}: it is used to read elements
+	 * beyond the fetched ones without fetching all the elements preceding
+	 * them, by pages of {@link #max_batch()} elements. returning less than
+	 * <code>max</code> elements means there are no elements after them.<br>
+	 * the default implementation is not supported.
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             if the source can't fetch elements at an offset.
+	 * @throws TransactionException
+	 *             on error
+	 */
+	protected List<T> fetch(int offset, int max)
+			throws UnsupportedOperationException {
+		throw new UnsupportedOperationException();
+	}
+
 	/**
 	 * counts the number of elements to be fetched.<br>
 	 * This is not the actual size of the list (shouldn't take into account
@@ -63,19 +261,516 @@ public abstract class FetchList<T> extends AbstractList<T> {
 	protected abstract int count() throws UnsupportedOperationException;
 
 	/**
-	 * fetches one record and adds it to the list.
+	 * restricts the records to fetch (and to count) to those satisfying the
+	 * given condition, as described by a {@link FilteredList} on this list
+	 * (see {@link FilteredList#describe()}), such as a WHERE clause.<br>
+	 * only called before any record is fetched, and possibly several times
+	 * (the records must then satisfy all the conditions). the filtered list
+	 * still verifies the records, so a source may also return records that
+	 * don't satisfy it.<br>
+	 * the default implementation doesn't support any condition.
+	 * 
+	 * @return false if the records can't be filtered with this condition
+	 *         (they are then fetched as before).
+	 */
+	protected boolean filter(Object condition) {
+		return false;
+	}
+
+	/**
+	 * Starts fetching elements in the background, so that fetching overlaps
+	 * with the processing of the elements already read.<br>
+	 * up to <code>window</code> elements will be fetched ahead of the list,
+	 * using {@link #fetch(int)} on the given executor (so it must be safe to
+	 * call from another thread, one call at a time). these elements are only
+	 * added to the list when it actually needs them, and errors are thrown by
+	 * the list operation that reaches them. if the executor rejects a fetch
+	 * (once it is shut down, for instance), the list stops reading ahead.
+	 * 
+	 * @param executor
+	 *            the executor to fetch elements with, or <code>null</code> to
+	 *            stop reading ahead (elements already fetched are kept).
+	 */
+	public void read_ahead(Executor executor, int window) {
+		if (executor != null && window < 1)
+			throw new IllegalArgumentException("window must be positive");
+		if (this.ahead == null)
+			this.ahead = new ArrayDeque<T>();
+		if (this.ahead_task != null)
+			this.read_ahead_join();
+		this.ahead_executor = executor;
+		this.ahead_window = window;
+		this.read_ahead_start(0);
+	}
+
+	/**
+	 * Starts counting the records in the background (using {@link #count()}
+	 * on the given executor, so it must be safe to call from another thread,
+	 * while elements are fetched), so that counting overlaps with the first
+	 * fetches.<br>
+	 * operations that don't need the count don't wait for it, and the end of
+	 * the records (if it is reached first) still overrides it. if the
+	 * executor rejects the count, the records are counted when needed, as
+	 * without it.
 	 */
-	private void fetch_one() throws NoSuchElementException {
+	public void count_ahead(Executor executor) {
+		if (this.tofetch != -1 || this.count_task != null)
+			return;
+		FutureTask<Integer> task = new FutureTask<Integer>(
+				new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						return FetchList.this.count();
+					}
+				});
 		try {
-			T t = this.fetch();
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			// (counted when needed instead)
+			return;
+		}
+		this.count_task = task;
+	}
+
+	/**
+	 * starts fetching (at least n) elements in the background, unless there
+	 * is already a fetch running or the read-ahead window is full.
+	 */
+	private void read_ahead_start(int n) {
+		if (this.ahead_executor == null || this.ahead_task != null
+				|| this.ahead_end || this.error != null)
+			return;
+		final int k;
+		if (this.tofetch >= 0)
+			k = Math.min(Math.max(n, this.ahead_window - this.ahead.size()),
+					this.tofetch - this.fetched.size() - this.ahead.size());
+		else
+			k = Math.max(n, this.ahead_window - this.ahead.size());
+		if (k <= 0)
+			return;
+		this.ahead_requested = k;
+		FutureTask<Batch<T>> task = new FutureTask<Batch<T>>(
+				new Callable<Batch<T>>() {
+					@Override
+					public Batch<T> call() {
+						return FetchList.this.fetch_batch(k);
+					}
+				});
+		try {
+			this.ahead_executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			// (the list fetches the elements itself from now on)
+			this.ahead_executor = null;
+			return;
+		}
+		this.ahead_task = task;
+	}
+
+	/**
+	 * waits for the running background fetch and buffers its result.
+	 */
+	private void read_ahead_join() {
+		try {
+			Batch<T> b = this.ahead_task.get();
+			this.ahead.addAll(b.elements);
+			if (b.error != null)
+				this.error = b.error;
+			else if (b.elements.size() < this.ahead_requested)
+				this.ahead_end = true;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				this.error = (RuntimeException) e.getCause();
+			else
+				this.error = new RuntimeException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} finally {
+			this.ahead_task = null;
+		}
+	}
+
+	/**
+	 * gets (at most) n records from the data source, or from the elements
+	 * already fetched in the background.<br>
+	 * less than n records means there are no more records to fetch, or that
+	 * there is an error waiting to be thrown.
+	 */
+	private List<T> pull(int n) {
+		if (this.ahead == null)
+			return this.fetch_now(n);
+		List<T> l = new ArrayList<T>(n);
+		for (;;) {
+			while (l.size() < n && !this.ahead.isEmpty())
+				l.add(this.ahead.poll());
+			if (l.size() == n || this.ahead_end || this.error != null)
+				break;
+			if (this.ahead_task == null)
+				this.read_ahead_start(n - l.size());
+			if (this.ahead_task == null) {
+				l.addAll(this.fetch_now(n - l.size()));
+				break;
+			}
+			this.read_ahead_join();
+		}
+		this.read_ahead_start(0);
+		return l;
+	}
+
+	/**
+	 * throws the waiting error, once the elements fetched before it (in the
+	 * background) were all taken.
+	 */
+	private void throw_error() {
+		if (this.error != null
+				&& (this.ahead == null || this.ahead.isEmpty())) {
+			RuntimeException e = this.error;
+			this.error = null;
+			throw e;
+		}
+	}
+
+	/**
+	 * gets (at most) n records from the data source without adding them to
+	 * the list, for lists reading this one as a source.<br>
+	 * an empty list means there are no more records.
+	 */
+	List<T> take(int n) {
+		this.throw_error();
+		if (this.tofetch >= 0 && this.tofetch <= this.fetched.size())
+			return new ArrayList<T>();
+		List<T> l = this.pull(n);
+		// (with an error waiting, it is thrown now or by the next call)
+		if (l.isEmpty())
+			this.throw_error();
+		if (l.size() < n && this.error == null)
+			this.tofetch = this.fetched.size();
+		return l;
+	}
+
+	/**
+	 * asks the source to filter the records with the given condition (see
+	 * {@link #filter(Object)}), if nothing was fetched (or added) yet.
+	 * 
+	 * @return whether the records are filtered.
+	 */
+	boolean pushdown(Object condition) {
+		if (!this.data.isEmpty() || !this.fetched.isEmpty()
+				|| this.to_add.size() > 0 || !this.pages.isEmpty()
+				|| !this.replaced.isEmpty() || this.ahead_task != null
+				|| (this.ahead != null && !this.ahead.isEmpty())
+				|| this.ahead_end || this.error != null)
+			return false;
+		if (!this.filter(condition))
+			return false;
+		// (the records were counted without the condition)
+		if (this.count_task != null) {
+			this.count_task.cancel(false);
+			this.count_task = null;
+		}
+		if (this.tofetch >= 0)
+			this.tofetch = -1;
+		return true;
+	}
+
+	/**
+	 * fetches (at most) n records and adds them to the list.
+	 * 
+	 * @return false if there are no more records to fetch.
+	 */
+	private boolean fetch_some(int n) {
+		this.throw_error();
+		if (this.tofetch >= 0)
+			n = Math.min(n, this.tofetch - this.fetched.size());
+		if (n <= 0) {
+			while (this.to_add.size() > 0)
+				this.add_pending();
+			return false;
+		}
+		int first_page = this.fetched.size() / this.page_size();
+		List<T> l = this.pull(n);
+		for (T t : l) {
+			int j = this.fetched.size();
 			this.fetched.add(t);
-			this.data.add(t);
-			while (this.to_add.containsKey(this.data.size()))
-				this.data.add(this.to_add.remove(this.data.size()));
-		} catch (NoSuchElementException e) {
+			if (this.replaced.containsKey(j)) {
+				this.data.add(this.replaced.remove(j));
+				if (this.replaced_old.containsKey(j))
+					this.marks.add(new Mark<T>(this.data.size() - 1, false,
+							this.replaced_old.remove(j)));
+			}
+			else if (this.patch != null)
+				this.patch.extend();
+			else
+				this.data.add(t);
+			while (this.to_add.first() == this.fetched.size())
+				this.add_pending();
+		}
+		int last_page = this.fetched.size() / this.page_size();
+		for (int p = first_page; p < last_page && !this.pages.isEmpty(); ++p)
+			if (this.pages.containsKey(p))
+				this.paged -= this.pages.remove(p).size();
+		if (l.size() < n) {
+			// (thrown by the next call, once the list reaches it)
+			if (this.error != null)
+				return true;
 			this.tofetch = this.fetched.size();
-			throw e;
+			// in case count() was wrong, these come after the last element
+			while (this.to_add.size() > 0)
+				this.add_pending();
+			return false;
+		}
+		return true;
+	}
+
+	private int page_size() {
+		return Math.max(1, this.max_batch());
+	}
+
+	/**
+	 * the index (in the original data) of element i, which must be an
+	 * original element beyond the fetched ones.
+	 */
+	private int original_index(int i) {
+		int key = i - this.data.size() + this.fetched.size();
+		return key - this.to_add.rank(key);
+	}
+
+	/**
+	 * Stores fetched elements in the given list instead of the heap, such as
+	 * a {@link SpillList}.<br>
+	 * the list contents are then kept as ranges of fetched elements (plus
+	 * the elements added or replaced), so the fetched elements are only read
+	 * from the store when needed. all operations work as before.
+	 * 
+	 * @param store
+	 *            an empty list, that will only be appended to.
+	 * @throws IllegalStateException
+	 *             if elements were already fetched or added.
+	 */
+	public void spill(List<T> store) {
+		if (!store.isEmpty())
+			throw new IllegalArgumentException("store is not empty");
+		if (!this.fetched.isEmpty() || !this.data.isEmpty())
+			throw new IllegalStateException("elements were already fetched");
+		this.fetched = store;
+		this.patch = new PatchList<T>(store);
+		this.data = this.patch;
+	}
+
+	/**
+	 * Limits the number of elements kept beyond the fetched ones.<br>
+	 * when the source supports {@link #fetch(int, int)}, elements read beyond
+	 * the fetched ones are kept by pages, which are dropped (least recently
+	 * used first) when there are more than <code>max</code> elements in them,
+	 * and fetched again when needed. pages where elements were replaced are
+	 * always kept. so a read-only list can be scanned in constant memory.
+	 * 
+	 * @param max
+	 *            the number of elements to keep, or 0 to keep them all (the
+	 *            default).
+	 */
+	public void window(int max) {
+		if (max < 0)
+			throw new IllegalArgumentException("negative window");
+		this.window = max;
+		this.evict(0);
+	}
+
+	/**
+	 * drops least recently used pages until there is room for n elements.
+	 */
+	private void evict(int n) {
+		if (this.window == 0 || this.paged + n <= this.window)
+			return;
+		Set<Integer> pinned = new HashSet<Integer>();
+		for (int j : this.replaced.keySet())
+			pinned.add(j / this.page_size());
+		Iterator<Map.Entry<Integer, List<T>>> it = this.pages.entrySet()
+				.iterator();
+		while (this.paged + n > this.window && it.hasNext()) {
+			Map.Entry<Integer, List<T>> e = it.next();
+			if (!pinned.contains(e.getKey())) {
+				this.paged -= e.getValue().size();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * gets the page containing original element j, fetching it with
+	 * {@link #fetch(int, int)} if needed.
+	 * 
+	 * @return the page, or <code>null</code> if it is not supported.
+	 * @throws IndexOutOfBoundsException
+	 *             if there is no such element
+	 */
+	private List<T> page(int j) throws IndexOutOfBoundsException {
+		if (this.tofetch >= 0 && j >= this.tofetch)
+			throw new IndexOutOfBoundsException();
+		int size = this.page_size();
+		List<T> page = this.pages.get(j / size);
+		if (page == null && this.seek >= 0) {
+			try {
+				page = this.fetch(j / size * size, size);
+			} catch (UnsupportedOperationException e) {
+				this.seek = -1;
+				return null;
+			}
+			this.seek = 1;
+			// an empty page only tells us the end is somewhere before it
+			int end = j / size * size + page.size();
+			if (page.size() < size && (page.size() > 0 || end == 0)
+					&& (this.tofetch < 0 || this.tofetch > end))
+				this.tofetch = end;
+			this.evict(page.size());
+			this.pages.put(j / size, page);
+			this.paged += page.size();
+		}
+		if (page != null && j % size >= page.size())
+			throw new IndexOutOfBoundsException();
+		return page;
+	}
+
+	/**
+	 * counts the records to fetch, if it wasn't done already (waits for
+	 * {@link #count_ahead(Executor)} if it's still counting).
+	 * 
+	 * @return false if they can't be counted without fetching them all.
+	 */
+	private boolean counted() {
+		if (this.count_task != null) {
+			FutureTask<Integer> task = this.count_task;
+			this.count_task = null;
+			if (this.tofetch == -1)
+				try {
+					this.tofetch = task.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof UnsupportedOperationException)
+						this.tofetch = -2;
+					else if (e.getCause() instanceof RuntimeException)
+						throw (RuntimeException) e.getCause();
+					else if (e.getCause() instanceof Error)
+						throw (Error) e.getCause();
+					else
+						throw new RuntimeException(e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(e);
+				}
 		}
+		if (this.tofetch == -1)
+			try {
+				this.tofetch = this.count();
+			} catch (UnsupportedOperationException e) {
+				this.tofetch = -2;
+			}
+		return this.tofetch >= 0;
+	}
+
+	/**
+	 * checks whether element i exists, fetching as few records as possible.
+	 */
+	private boolean exists(int i) {
+		if (i < this.data.size())
+			return true;
+		if (i > this.data.size() && this.to_add.find(i - this.data.size()
+				+ this.fetched.size()) != null)
+			return true;
+		// (even when counted, since the end of the records overrides the count)
+		if (this.seek >= 0)
+			try {
+				if (this.page(this.original_index(i)) != null)
+					return true;
+			} catch (IndexOutOfBoundsException e) {
+				return false;
+			}
+		try {
+			this.fetch_until(i);
+			return true;
+		} catch (IndexOutOfBoundsException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * moves the first pending element to the list.
+	 */
+	private void add_pending() {
+		Pending<T>.Node n = this.to_add.poll();
+		this.data.add(n.value);
+		if (n.state == 0) {
+			this.changed(n.value, 1);
+			this.marks.add(new Mark<T>(this.data.size() - 1, true, null));
+		} else if (n.state == 2)
+			this.marks.add(new Mark<T>(this.data.size() - 1, false, n.old));
+	}
+
+	/**
+	 * @return the position of the first mark of element i or after it.
+	 */
+	private int mark(int i) {
+		int low = 0;
+		int high = this.marks.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (this.marks.get(mid).index < i)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * records that element i of data was added.
+	 */
+	private void mark_added(int i) {
+		int k = this.mark(i);
+		for (int m = k; m < this.marks.size(); ++m)
+			++this.marks.get(m).index;
+		this.marks.add(k, new Mark<T>(i, true, null));
+	}
+
+	/**
+	 * records that element i of data (previously old) was replaced.
+	 */
+	private void mark_replaced(int i, T old) {
+		int k = this.mark(i);
+		if (k == this.marks.size() || this.marks.get(k).index != i)
+			this.marks.add(k, new Mark<T>(i, false, old));
+	}
+
+	/**
+	 * records that element i of data (previously old) was removed.
+	 */
+	private void mark_removed(int i, T old) {
+		int k = this.mark(i);
+		if (k < this.marks.size() && this.marks.get(k).index == i) {
+			Mark<T> m = this.marks.remove(k);
+			if (!m.added)
+				this.dropped.add(m.old);
+		} else
+			this.dropped.add(old);
+		for (int m = k; m < this.marks.size(); ++m)
+			--this.marks.get(m).index;
+	}
+
+	/**
+	 * records that the number of occurrences of e in data changed by d.
+	 */
+	private void changed(T e, int d) {
+		this.changed(this.changes, e, d);
+	}
+
+	private void changed(Map<T, Integer> changes, T e, int d) {
+		Integer c = changes.get(e);
+		int n = (c == null ? 0 : c) + d;
+		if (n == 0)
+			changes.remove(e);
+		else
+			changes.put(e, n);
 	}
 
 	/**
@@ -88,46 +783,100 @@ public abstract class FetchList<T> extends AbstractList<T> {
 		if (i < 0)
 			throw new IndexOutOfBoundsException("negative index");
 		while (this.data.size() <= i) {
-			try {
-				this.fetch_one();
-			} catch (NoSuchElementException e) {
+			int n = Math.min(Math.max(i + 1 - this.data.size(), this.batch),
+					Math.max(1, this.max_batch()));
+			this.batch = Math.max(1, Math.min(this.batch * 2, this.max_batch()));
+			if (!this.fetch_some(n) && this.data.size() <= i)
 				throw new IndexOutOfBoundsException();
-			}
 		}
 	}
 
+	/**
+	 * makes element i available, fetching at most n records at a time
+	 * (instead of growing batches), for consumers that know how many
+	 * elements they still need.
+	 *
+	 * @return false if there is no element i.
+	 */
+	boolean fetch_bounded(int i, long n) {
+		while (this.data.size() <= i) {
+			if (this.to_add.find(i - this.data.size()
+					+ this.fetched.size()) != null)
+				return true;
+			int k = (int) Math.min(Math.max(1, n), this.page_size());
+			if (!this.fetch_some(k) && this.data.size() <= i)
+				return false;
+		}
+		return true;
+	}
+
 	@Override
 	public T get(int i) throws IndexOutOfBoundsException {
-		for (Map.Entry<Integer, T> e : this.to_add.entrySet())
-			if (e.getKey() == i)
-				return e.getValue();
+		if (i > this.data.size()) {
+			Pending<T>.Node n = this.to_add.find(i - this.data.size()
+					+ this.fetched.size());
+			if (n != null)
+				return n.value;
+		}
+		if (i >= this.data.size() && this.seek >= 0) {
+			int j = this.original_index(i);
+			if (this.replaced.containsKey(j))
+				return this.replaced.get(j);
+			List<T> page = this.page(j);
+			if (page != null)
+				return page.get(j % this.page_size());
+		}
 		this.fetch_until(i);
 		return this.data.get(i);
 	}
 
 	@Override
 	public int size() {
-		if (this.tofetch == -1)
-			try {
-				this.tofetch = this.count();
-			} catch (UnsupportedOperationException e) {
-				this.tofetch = -2;
-			}
-		if (this.tofetch == -2)
-			for (;;)
-				try {
-					this.fetch_one();
-				} catch (NoSuchElementException e) {
-					break;
-				}
+		if (!this.counted())
+			while (this.fetch_some(Math.max(1, this.max_batch())))
+				;
 		return this.tofetch - this.fetched.size() + this.data.size()
 				+ this.to_add.size();
 	}
 
 	@Override
 	public T set(int i, T e) {
+		if (i > this.data.size()) {
+			Pending<T>.Node n = this.to_add.find(i - this.data.size()
+					+ this.fetched.size());
+			if (n != null) {
+				T old = n.value;
+				n.value = e;
+				if (n.state != 0) {
+					if (n.state == 1)
+						n.old = old;
+					n.state = 2;
+					this.changed(old, -1);
+					this.changed(e, 1);
+				}
+				return old;
+			}
+		}
+		if (i >= this.data.size() && this.seek >= 0) {
+			int j = this.original_index(i);
+			List<T> page = this.replaced.containsKey(j) ? null : this.page(j);
+			if (page != null)
+				this.replaced.put(j, page.get(j % this.page_size()));
+			if (this.replaced.containsKey(j)) {
+				T old = this.replaced.put(j, e);
+				if (!this.replaced_old.containsKey(j))
+					this.replaced_old.put(j, old);
+				this.changed(old, -1);
+				this.changed(e, 1);
+				return old;
+			}
+		}
 		this.fetch_until(i);
-		return this.data.set(i, e);
+		T old = this.data.set(i, e);
+		this.mark_replaced(i, old);
+		this.changed(old, -1);
+		this.changed(e, 1);
+		return old;
 	}
 
 	@Override
@@ -136,83 +885,529 @@ public abstract class FetchList<T> extends AbstractList<T> {
 			throw new IndexOutOfBoundsException();
 		try {
 			this.data.add(i, e);
+			this.mark_added(i);
+			this.changed(e, 1);
 		} catch (IndexOutOfBoundsException e1) {
-			if (this.tofetch == -1)
-				try {
-					this.tofetch = this.count();
-				} catch (UnsupportedOperationException e2) {
-					this.tofetch = -2;
-				}
-			if (this.tofetch == -2) {
+			if (!this.counted()) {
 				this.fetch_until(i - 1);
 				this.data.add(i, e);
-				return;
+				this.mark_added(i);
+				this.changed(e, 1);
+			} else {
+				if (i > this.size())
+					throw new IndexOutOfBoundsException();
+				int key = i - this.data.size() + this.fetched.size();
+				int rank = this.to_add.rank(key);
+				this.to_add.insert(rank, key - rank, e);
 			}
-			if (i > this.size())
-				throw new IndexOutOfBoundsException();
-			Map<Integer, T> m = new HashMap<Integer, T>();
-			for (Map.Entry<Integer, T> t : this.to_add.entrySet())
-				m.put(t.getKey() >= i ? t.getKey() + 1 : t.getKey(),
-						t.getValue());
-			this.to_add = m;
-			this.to_add.put(i, e);
 		}
+		++this.modCount;
 	}
 
 	@Override
 	public T remove(int i) {
 		this.fetch_until(i);
-		return this.data.remove(i);
+		T old = this.data.remove(i);
+		this.mark_removed(i, old);
+		this.changed(old, -1);
+		++this.modCount;
+		return old;
+	}
+
+	/**
+	 * Iterates over the list without requiring its size, fetching elements
+	 * only as the iteration reaches them.
+	 */
+	private class FetchIterator implements Iterator<T> {
+		private int next;
+		private int last;
+		private int expected;
+
+		public FetchIterator() {
+			this.next = 0;
+			this.last = -1;
+			this.expected = FetchList.this.modCount;
+		}
+
+		private void check() {
+			if (FetchList.this.modCount != this.expected)
+				throw new ConcurrentModificationException();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return FetchList.this.exists(this.next);
+		}
+
+		@Override
+		public T next() {
+			this.check();
+			if (!FetchList.this.exists(this.next))
+				throw new NoSuchElementException();
+			this.last = this.next++;
+			return FetchList.this.get(this.last);
+		}
+
+		@Override
+		public void remove() {
+			if (this.last < 0)
+				throw new IllegalStateException();
+			this.check();
+			FetchList.this.remove(this.last);
+			this.next = this.last;
+			this.last = -1;
+			this.expected = FetchList.this.modCount;
+		}
 	}
 
-	private static int count_in(List<?> l, Object o) {
-		int i = 0;
-		for (Object e : l)
-			if (e.equals(o))
-				++i;
-		return i;
+	/**
+	 * Iterates over the list without keeping the records it fetches.
+	 */
+	private class FetchCursor implements Iterator<T> {
+		private int next;
+		private List<T> batch;
+		private int position;
+		private boolean end;
+		// records taken from the source
+		private int taken;
+		private int expected;
+
+		public FetchCursor() {
+			this.next = 0;
+			this.expected = FetchList.this.modCount;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (FetchList.this.modCount != this.expected)
+				throw new ConcurrentModificationException();
+			if (this.batch == null && this.next < FetchList.this.data.size())
+				return true;
+			while ((this.batch == null || this.position == this.batch.size())
+					&& !this.end) {
+				int n = FetchList.this.page_size();
+				if (FetchList.this.tofetch >= 0)
+					n = Math.min(n, FetchList.this.tofetch
+							- FetchList.this.fetched.size() - this.taken);
+				this.batch = n > 0 ? FetchList.this.take(n)
+						: new ArrayList<T>();
+				this.taken += this.batch.size();
+				this.position = 0;
+				this.end = this.batch.isEmpty();
+			}
+			if (this.end)
+				FetchList.this.tofetch = FetchList.this.fetched.size();
+			return this.position < this.batch.size();
+		}
+
+		@Override
+		public T next() {
+			if (!this.hasNext())
+				throw new NoSuchElementException();
+			if (this.batch == null)
+				return FetchList.this.data.get(this.next++);
+			return this.batch.get(this.position++);
+		}
 	}
 
+	@Override
+	public Iterator<T> iterator() {
+		return new FetchIterator();
+	}
+
+	/**
+	 * Iterates over the list without keeping the records it fetches in the
+	 * list, so that a list that is only read can be scanned in constant
+	 * memory (at most {@link #max_batch()} records, and the read-ahead window,
+	 * are kept at a time).<br>
+	 * the elements already in the list are returned first, then the records
+	 * that are not fetched yet, which are consumed by the cursor: the list
+	 * ends where the cursor started fetching, like a result set that can only
+	 * be read once. the list shouldn't be used until the cursor is done.
+	 * 
+	 * @throws IllegalStateException
+	 *             if elements were added or replaced beyond the fetched ones.
+	 */
+	public Iterator<T> cursor() {
+		if (this.to_add.size() > 0 || !this.replaced.isEmpty())
+			throw new IllegalStateException(
+					"elements were modified beyond the fetched ones");
+		return new FetchCursor();
+	}
+
+	/**
+	 * The spliterator estimates its size with {@link #count()} when the
+	 * records can be counted without fetching them (and without waiting for
+	 * {@link #count_ahead(Executor)}), but isn't {@link Spliterator#SIZED},
+	 * since the end of the records overrides the count.
+	 */
+	@Override
+	public Spliterator<T> spliterator() {
+		long size = Long.MAX_VALUE;
+		if ((this.count_task == null || this.count_task.isDone())
+				&& this.counted())
+			size = this.size();
+		final Iterator<T> it = this.iterator();
+		return new Spliterators.AbstractSpliterator<T>(size,
+				Spliterator.ORDERED) {
+			@Override
+			public boolean tryAdvance(Consumer<? super T> action) {
+				if (!it.hasNext())
+					return false;
+				action.accept(it.next());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * added records (including records added beyond the fetched ones), since
+	 * the last flush.
+	 */
 	public List<T> get_added() {
 		List<T> l = new ArrayList<T>();
-		for (T e : this.data) {
-			if (l.contains(e))
-				continue;
-			int c = FetchList.count_in(this.data, e)
-					- FetchList.count_in(this.fetched, e);
-			for (int i = 0; i < c; ++i)
-				l.add(e);
-		}
-		l.addAll(this.to_add.values());
+		for (Map.Entry<T, Integer> e : this.changes.entrySet())
+			for (int i = 0; i < e.getValue(); ++i)
+				l.add(e.getKey());
+		List<Pending<T>.Node> nodes = new ArrayList<Pending<T>.Node>();
+		this.to_add.nodes(nodes);
+		for (Pending<T>.Node n : nodes)
+			if (n.state == 0)
+				l.add(n.value);
 		return l;
 	}
 
 	/**
-	 * fetched, undeleted records
+	 * fetched, undeleted records (or, after a flush, the flushed records
+	 * that are still there).<br>
+	 * records read beyond the fetched ones (see {@link #fetch(int, int)})
+	 * come after them, as long as their page is kept (see
+	 * {@link #window(int)}).
 	 */
 	public List<T> get_original() {
+		// added elements, without those replaced before being fetched
+		Map<T, Integer> added = new HashMap<T, Integer>(this.changes);
+		for (Map.Entry<Integer, T> e : this.replaced_old.entrySet()) {
+			this.changed(added, e.getValue(), 1);
+			this.changed(added, this.replaced.get(e.getKey()), -1);
+		}
+		List<Pending<T>.Node> nodes = new ArrayList<Pending<T>.Node>();
+		this.to_add.nodes(nodes);
+		for (Pending<T>.Node n : nodes)
+			if (n.state == 2) {
+				this.changed(added, n.old, 1);
+				this.changed(added, n.value, -1);
+			}
 		List<T> l = new ArrayList<T>();
 		for (T e : this.data) {
-			if (l.contains(e))
-				continue;
-			int c = Math.min(FetchList.count_in(this.data, e),
-					FetchList.count_in(this.fetched, e));
-			for (int i = 0; i < c; ++i)
+			Integer c = added.get(e);
+			if (c == null || c <= 0)
 				l.add(e);
+			else
+				added.put(e, c - 1);
 		}
+		// (by page number, without changing their LRU order)
+		int size = this.page_size();
+		for (Map.Entry<Integer, List<T>> p : new TreeMap<Integer, List<T>>(
+				this.pages).entrySet())
+			for (int k = 0; k < p.getValue().size(); ++k) {
+				int j = p.getKey() * size + k;
+				if (j < this.fetched.size()
+						|| this.replaced_old.containsKey(j))
+					continue;
+				l.add(this.replaced.containsKey(j) ? this.replaced.get(j) : p
+						.getValue().get(k));
+			}
 		return l;
 	}
 
+	/**
+	 * fetched records that are no longer in the list, since the last flush.
+	 */
 	public List<T> get_deleted() {
 		List<T> l = new ArrayList<T>();
-		for (T e : this.fetched) {
-			if (l.contains(e))
-				continue;
-			int c = FetchList.count_in(this.fetched, e)
-					- FetchList.count_in(this.data, e);
-			for (int i = 0; i < c; ++i)
-				l.add(e);
-		}
+		for (Map.Entry<T, Integer> e : this.changes.entrySet())
+			for (int i = 0; i < -e.getValue(); ++i)
+				l.add(e.getKey());
 		return l;
 	}
+
+	/**
+	 * Sends the changes made since the last flush (or since the list was
+	 * created) to the given sink, in batches of at most <code>batch</code>
+	 * elements: removed elements first, then replaced elements, then added
+	 * elements. the sent changes are then considered part of the original
+	 * data, so the next flush only sends the changes made after this one.<br>
+	 * no elements are fetched.
+	 */
+	public void flush(Sink<T> sink, int batch) {
+		if (batch < 1)
+			throw new IllegalArgumentException("batch must be positive");
+		List<Integer> updated = new ArrayList<Integer>();
+		List<T> old = new ArrayList<T>();
+		List<T> values = new ArrayList<T>();
+		List<Integer> added = new ArrayList<Integer>();
+		List<T> elements = new ArrayList<T>();
+		for (Mark<T> m : this.marks)
+			if (m.added) {
+				added.add(m.index);
+				elements.add(this.data.get(m.index));
+			} else {
+				updated.add(m.index);
+				old.add(m.old);
+				values.add(this.data.get(m.index));
+			}
+		// beyond the fetched ones: pending elements and replaced originals
+		int offset = this.data.size() - this.fetched.size();
+		List<Pending<T>.Node> nodes = new ArrayList<Pending<T>.Node>();
+		this.to_add.nodes(nodes);
+		List<Integer> originals = new ArrayList<Integer>(
+				this.replaced_old.keySet());
+		Collections.sort(originals);
+		int r = 0;
+		for (int j : originals) {
+			// the pending elements preceding original j
+			int count = this.to_add.count(j);
+			for (; r < count; ++r)
+				this.flushed(nodes.get(r), offset + nodes.get(r).before + r,
+						updated, old, values, added, elements);
+			updated.add(offset + j + count);
+			old.add(this.replaced_old.get(j));
+			values.add(this.replaced.get(j));
+		}
+		for (; r < nodes.size(); ++r)
+			this.flushed(nodes.get(r), offset + nodes.get(r).before + r,
+					updated, old, values, added, elements);
+		for (int k = 0; k < this.dropped.size(); k += batch)
+			sink.delete(new ArrayList<T>(this.dropped.subList(k,
+					Math.min(k + batch, this.dropped.size()))));
+		for (int k = 0; k < updated.size(); k += batch) {
+			int end = Math.min(k + batch, updated.size());
+			sink.update(FetchList.indexes(updated.subList(k, end)),
+					new ArrayList<T>(old.subList(k, end)), new ArrayList<T>(
+							values.subList(k, end)));
+		}
+		for (int k = 0; k < added.size(); k += batch) {
+			int end = Math.min(k + batch, added.size());
+			sink.insert(FetchList.indexes(added.subList(k, end)),
+					new ArrayList<T>(elements.subList(k, end)));
+		}
+		this.marks.clear();
+		this.dropped.clear();
+		this.replaced_old.clear();
+		this.changes.clear();
+		for (Pending<T>.Node n : nodes) {
+			n.state = 1;
+			n.old = null;
+		}
+	}
+
+	/**
+	 * adds the change of a pending element (at the given index) to the
+	 * changes to flush.
+	 */
+	private void flushed(Pending<T>.Node n, int index, List<Integer> updated,
+			List<T> old, List<T> values, List<Integer> added, List<T> elements) {
+		if (n.state == 0) {
+			added.add(index);
+			elements.add(n.value);
+		} else if (n.state == 2) {
+			updated.add(index);
+			old.add(n.old);
+			values.add(n.value);
+		}
+	}
+
+	private static int[] indexes(List<Integer> l) {
+		int[] a = new int[l.size()];
+		for (int i = 0; i < a.length; ++i)
+			a[i] = l.get(i);
+		return a;
+	}
+
+	/**
+	 * Elements added beyond the fetched ones, in list order.<br>
+	 * Instead of its index, each element keeps the index of the original
+	 * (not yet fetched) element it precedes, so fetching or modifying the
+	 * fetched elements doesn't change it. Its index in the list is then
+	 * <code>data.size() - fetched.size() + key</code>, where the key is that
+	 * original index plus its rank in the tree.<br>
+	 * Backed by a treap on ranks (keys are always increasing), so finding,
+	 * adding and removing elements are all O(log n).
+	 */
+	private static class Pending<T> {
+
+		private class Node {
+			private T value;
+			// 0 = added, 1 = flushed, 2 = flushed then replaced (see old)
+			private int state;
+			private T old;
+			private int before;
+			private int priority;
+			private int size;
+			private Node left;
+			private Node right;
+		}
+
+		private Node root;
+
+		private Random random;
+
+		public Pending() {
+			this.random = new Random();
+		}
+
+		private int size(Node n) {
+			return n == null ? 0 : n.size;
+		}
+
+		private Node update(Node n) {
+			n.size = 1 + this.size(n.left) + this.size(n.right);
+			return n;
+		}
+
+		public int size() {
+			return this.size(this.root);
+		}
+
+		/**
+		 * the number of elements whose key is lower than the given key.
+		 */
+		public int rank(int key) {
+			int base = 0;
+			Node n = this.root;
+			while (n != null) {
+				int rank = base + this.size(n.left);
+				if (n.before + rank < key) {
+					base = rank + 1;
+					n = n.right;
+				} else
+					n = n.left;
+			}
+			return base;
+		}
+
+		/**
+		 * @return the element with the given key, or <code>null</code>.
+		 */
+		public Node find(int key) {
+			int base = 0;
+			Node n = this.root;
+			while (n != null) {
+				int rank = base + this.size(n.left);
+				if (n.before + rank == key)
+					return n;
+				if (n.before + rank < key) {
+					base = rank + 1;
+					n = n.right;
+				} else
+					n = n.left;
+			}
+			return null;
+		}
+
+		private Node rotate_left(Node n) {
+			Node r = n.right;
+			n.right = r.left;
+			r.left = this.update(n);
+			return this.update(r);
+		}
+
+		private Node rotate_right(Node n) {
+			Node l = n.left;
+			n.left = l.right;
+			l.right = this.update(n);
+			return this.update(l);
+		}
+
+		private Node insert(Node n, int rank, Node x) {
+			if (n == null)
+				return x;
+			if (rank <= this.size(n.left)) {
+				n.left = this.insert(n.left, rank, x);
+				if (n.left.priority > n.priority)
+					return this.rotate_right(n);
+			} else {
+				n.right = this.insert(n.right, rank - this.size(n.left) - 1, x);
+				if (n.right.priority > n.priority)
+					return this.rotate_left(n);
+			}
+			return this.update(n);
+		}
+
+		/**
+		 * inserts an element at the given rank, preceding the given original
+		 * element.
+		 */
+		public void insert(int rank, int before, T value) {
+			Node x = new Node();
+			x.value = value;
+			x.before = before;
+			x.priority = this.random.nextInt();
+			x.size = 1;
+			this.root = this.insert(this.root, rank, x);
+		}
+
+		/**
+		 * @return the original element the first element precedes, or -1 if
+		 *         there are no elements.
+		 */
+		public int first() {
+			Node n = this.root;
+			if (n == null)
+				return -1;
+			while (n.left != null)
+				n = n.left;
+			return n.before;
+		}
+
+		private Node poll(Node n, List<Node> l) {
+			if (n.left == null) {
+				l.add(n);
+				return n.right;
+			}
+			n.left = this.poll(n.left, l);
+			return this.update(n);
+		}
+
+		/**
+		 * removes and returns the first element.
+		 */
+		public Node poll() {
+			List<Node> l = new ArrayList<Node>(1);
+			this.root = this.poll(this.root, l);
+			return l.get(0);
+		}
+
+		/**
+		 * the number of elements preceding original elements up to the given
+		 * one (included).
+		 */
+		public int count(int before) {
+			int c = 0;
+			Node n = this.root;
+			while (n != null)
+				if (n.before <= before) {
+					c += this.size(n.left) + 1;
+					n = n.right;
+				} else
+					n = n.left;
+			return c;
+		}
+
+		private void nodes(Node n, List<Node> l) {
+			if (n == null)
+				return;
+			this.nodes(n.left, l);
+			l.add(n);
+			this.nodes(n.right, l);
+		}
+
+		/**
+		 * adds all elements to the given list, in order.
+		 */
+		public void nodes(List<Node> l) {
+			this.nodes(this.root, l);
+		}
+	}
 }
@@ -0,0 +1,141 @@
+package jeck;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the elements of a {@link FetchList} to {@link Flow.Subscriber}s.
+ * <p>
+ * Records are only fetched when subscribers request elements, and never more
+ * than they requested (at most {@link FetchList#max_batch()} at a time), so a
+ * slow subscriber also slows down fetching. Elements are delivered on the
+ * given executor (if it rejects them, the subscriber receives the
+ * {@link RejectedExecutionException} as an error), and are read through the
+ * list (so they are added to it as if they were read by
+ * {@link FetchList#get(int)}).
+ * <p>
+ * The list is locked (synchronized on) while elements are fetched, it must not
+ * be used by other threads while it is published, unless they also lock it.
+ *
+ * @author Reda El Khattabi
+ */
+public class FetchPublisher<T> implements Flow.Publisher<T> {
+
+	private FetchList<T> list;
+
+	private Executor executor;
+
+	public FetchPublisher(FetchList<T> list, Executor executor) {
+		if (list == null || executor == null)
+			throw new NullPointerException();
+		this.list = list;
+		this.executor = executor;
+	}
+
+	/**
+	 * Each subscriber receives the list from its first element.
+	 */
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		if (subscriber == null)
+			throw new NullPointerException();
+		FetchSubscription s = new FetchSubscription(subscriber);
+		subscriber.onSubscribe(s);
+	}
+
+	private class FetchSubscription implements Flow.Subscription, Runnable {
+		private Flow.Subscriber<? super T> subscriber;
+		private int next;
+		private AtomicLong demand;
+		private volatile boolean cancelled;
+		private volatile Throwable error;
+		// scheduled drains, only one of them runs
+		private AtomicInteger pending;
+
+		public FetchSubscription(Flow.Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+			this.next = 0;
+			this.demand = new AtomicLong();
+			this.cancelled = false;
+			this.pending = new AtomicInteger();
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0)
+				this.error = new IllegalArgumentException(
+						"non-positive request: " + n);
+			else {
+				long d;
+				do
+					d = this.demand.get();
+				while (!this.demand.compareAndSet(d,
+						d + n < 0 ? Long.MAX_VALUE : d + n));
+			}
+			if (this.pending.getAndIncrement() == 0)
+				try {
+					FetchPublisher.this.executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					// (no drain runs, so the error is signaled from here)
+					if (!this.cancelled) {
+						this.cancelled = true;
+						this.subscriber.onError(e);
+					}
+					this.pending.decrementAndGet();
+				}
+		}
+
+		@Override
+		public void cancel() {
+			this.cancelled = true;
+		}
+
+		@Override
+		public void run() {
+			int missed = 1;
+			do {
+				this.drain();
+				missed = this.pending.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		private void drain() {
+			while (!this.cancelled) {
+				if (this.error != null) {
+					this.cancelled = true;
+					this.subscriber.onError(this.error);
+					return;
+				}
+				long d = this.demand.get();
+				if (d == 0)
+					return;
+				boolean found;
+				T e = null;
+				try {
+					synchronized (FetchPublisher.this.list) {
+						found = FetchPublisher.this.list.fetch_bounded(
+								this.next, d);
+						if (found)
+							e = FetchPublisher.this.list.get(this.next);
+					}
+				} catch (RuntimeException ex) {
+					this.cancelled = true;
+					this.subscriber.onError(ex);
+					return;
+				}
+				if (!found) {
+					this.cancelled = true;
+					this.subscriber.onComplete();
+					return;
+				}
+				++this.next;
+				if (d != Long.MAX_VALUE)
+					this.demand.decrementAndGet();
+				this.subscriber.onNext(e);
+			}
+		}
+	}
+}
@@ -1,20 +1,40 @@
 package jeck;
 
 import java.util.AbstractSequentialList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
- * A filtered, synchronized view on another {@link List}.
+ * A filtered view on another {@link List}.
  * <p>
  * A {@link FilteredList} is a {@link List} implementation that is based on
  * another List (the base list), but only shows elements satisfying a given
  * condition.
  * <p>
- * It is fully synchronized with the base list, so all operations are
- * "passed through", allowing even modification operations to affect the base
- * list (like any modification to the base list immediately affects the filtered
- * list).
+ * All operations are "passed through" to the base list, allowing even
+ * modification operations to affect the base list. The positions of the
+ * matching base elements are cached, so that {@link #size()} and index
+ * lookups don't scan the base list again: elements inserted into or removed
+ * from the base list are seen immediately (they are detected through the base
+ * list iterators, like a fail-fast iterator would), but elements replaced
+ * without going through the filtered list (with {@link List#set(int, Object)}
+ * on the base list, or by modifying the elements themselves) are not, until
+ * {@link #invalidate()} is called. Until then, the list may disagree with
+ * itself (iterating reads the base elements, while {@link #size()} and
+ * {@link #get(int)} use the cached positions), unless it observes the base
+ * list (see {@link #observe(boolean)}).
  * <p>
  * In order for elements added (or replaced) to the filtered list (and thus to
  * the base list) to be considered members of the list (so they don't
@@ -35,10 +55,50 @@ import java.util.ListIterator;
 public abstract class FilteredList<E> extends AbstractSequentialList<E>
 		implements List<E> {
 
+	// base elements verified by each parallel task
+	private static final int CHUNK = 1 << 13;
+
 	private List<E> baseList;
 
+	// the filtered list this one is stacked on, if any (see accepts())
+	private FilteredList<E> parent;
+
+	// base positions of the matching elements, null when outdated
+	private int[] matches;
+	private int matchCount;
+
+	// replaces matches while observing the base list, see observe()
+	private MatchTree tree;
+	private ObservableList.Listener<E> listener;
+
+	// replaces matches when compressed, see compress()
+	private boolean compress;
+	private MatchBitmap bitmap;
+
+	// detects the base list modifications
+	private BaseProbe<E> probe;
+
+	// build the positions with several threads, see parallelize()
+	private boolean parallel;
+
+	// verify() results of the first memoLimit base elements, see memoize()
+	private int memoLimit;
+	private BitSet memoKnown;
+	private BitSet memo;
+
+	/**
+	 * A {@link FilteredList} on another {@link FilteredList} is a view on the
+	 * same base list, filtering its elements with both conditions (and
+	 * updating added elements with both {@link #update(Object)} methods, this
+	 * one first), so stacked lists are read with a single iteration.
+	 */
 	public FilteredList(List<E> baseList) {
-		this.baseList = baseList;
+		if (baseList instanceof FilteredList) {
+			this.parent = (FilteredList<E>) baseList;
+			this.baseList = this.parent.baseList;
+		} else
+			this.baseList = baseList;
+		this.probe = new BaseProbe<E>(this.baseList);
 	}
 
 	// ///////////////////////// API
@@ -71,6 +131,439 @@ public abstract class FilteredList<E> extends AbstractSequentialList<E>
 		throw new IllegalArgumentException();
 	}
 
+	/**
+	 * Describes the condition checked by {@link #verify(Object)} to a base
+	 * {@link FetchList} that can filter its records itself (see
+	 * {@link #pushdown()}), such as a WHERE clause for a database query.
+	 * <p>
+	 * The default implementation has no description.
+	 * 
+	 * @return the description of the condition, in a form understood by the
+	 *         base list, or <code>null</code>.
+	 */
+	protected Object describe() {
+		return null;
+	}
+
+	/**
+	 * {@link #verify(Object)}, with the conditions of the filtered lists this
+	 * one is stacked on.
+	 */
+	boolean accepts(E element) {
+		return (this.parent == null || this.parent.accepts(element))
+				&& this.verify(element);
+	}
+
+	/**
+	 * {@link #update(Object)}, with the updates of the filtered lists this
+	 * one is stacked on.
+	 */
+	E admit(E element) throws IllegalArgumentException {
+		E e = this.update(element);
+		return this.parent == null ? e : this.parent.admit(e);
+	}
+
+	/**
+	 * Drops the cached positions of the matching elements, they will be
+	 * computed again when needed.
+	 * <p>
+	 * Should be called when base elements are replaced (or modified) without
+	 * going through the filtered list.
+	 */
+	public void invalidate() {
+		this.reset();
+	}
+
+	/**
+	 * drops the cached positions (and results).
+	 */
+	private void reset() {
+		this.matches = null;
+		this.tree = null;
+		this.bitmap = null;
+		this.probe.stop();
+		if (this.memoLimit > 0) {
+			this.memoKnown.clear();
+			this.memo.clear();
+		}
+	}
+
+	/**
+	 * Lets a {@link FetchList} base list fetch only the records satisfying the
+	 * condition of this list (see {@link #describe()} and
+	 * {@link FetchList#filter(Object)}), instead of fetching all of them to
+	 * verify them here. Elements are still verified, so the base list may
+	 * return records that don't satisfy it, and elements added to the base
+	 * list are shown only if they match.
+	 * <p>
+	 * Only possible before the base list fetches (or adds) any element. The
+	 * base list then only contains these records, so it shouldn't be shared
+	 * with lists that aren't filtered by this condition.
+	 * 
+	 * @return whether the base list filters its records.
+	 */
+	public boolean pushdown() {
+		Object condition = this.describe();
+		if (condition == null || !(this.baseList instanceof FetchList))
+			return false;
+		if (!((FetchList<E>) this.baseList).pushdown(condition))
+			return false;
+		this.invalidate();
+		return true;
+	}
+
+	/**
+	 * Remembers the result of {@link #verify(Object)} for each base element
+	 * (up to the given number of them, for about <code>limit / 4</code>
+	 * bytes), so that reading the list again doesn't verify elements again
+	 * until the base list is modified (see {@link #invalidate()}).
+	 * 
+	 * @param limit
+	 *            the number of base elements to remember, from the first one
+	 *            (0 to stop remembering).
+	 */
+	public void memoize(int limit) {
+		if (limit < 0)
+			throw new IllegalArgumentException("negative limit");
+		this.memoLimit = limit;
+		this.memoKnown = limit == 0 ? null : new BitSet();
+		this.memo = limit == 0 ? null : new BitSet();
+	}
+
+	/**
+	 * Computes the positions of the matching elements with several threads
+	 * (in the common {@link ForkJoinPool}), when the base list is
+	 * {@link RandomAccess}. {@link #verify(Object)} must then be safe to call
+	 * from several threads at once (and these calls don't memoize their
+	 * results).
+	 */
+	public void parallelize(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Keeps the positions of the matching elements in a compressed bitmap
+	 * (taking little memory for both very few and very many matching
+	 * elements) instead of an array, at the cost of slightly slower index
+	 * lookups, and of rebuilding the bitmap after the modified position when
+	 * the list is modified. Has no effect while observing the base list (see
+	 * {@link #observe(boolean)}).
+	 */
+	public void compress(boolean compress) {
+		this.compress = compress;
+		this.matches = null;
+		this.bitmap = null;
+	}
+
+	/**
+	 * Keeps the positions of the matching elements up to date with the
+	 * modifications published by the base list (instead of computing them
+	 * again after each modification), verifying only the inserted and
+	 * replaced elements, in O(log n) for each of them.
+	 * <p>
+	 * The list is registered as a listener of the base list until
+	 * <code>observe(false)</code> is called.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the base list isn't an {@link ObservableList}.
+	 */
+	public void observe(boolean observe) {
+		if (observe == (this.listener != null))
+			return;
+		if (!(this.baseList instanceof ObservableList))
+			throw new IllegalStateException("base list is not observable");
+		ObservableList<E> base = (ObservableList<E>) this.baseList;
+		if (observe) {
+			this.listener = new ObservableList.Listener<E>() {
+				@Override
+				public void inserted(int index, E element) {
+					if (FilteredList.this.tree != null)
+						FilteredList.this.tree.insert(index,
+								FilteredList.this.accepts(element));
+				}
+
+				@Override
+				public void removed(int index, E element) {
+					if (FilteredList.this.tree != null)
+						FilteredList.this.tree.remove(index);
+				}
+
+				@Override
+				public void replaced(int index, E old, E element) {
+					if (FilteredList.this.tree != null)
+						FilteredList.this.tree.set(index,
+								FilteredList.this.accepts(element));
+				}
+			};
+			base.addListener(this.listener);
+		} else {
+			base.removeListener(this.listener);
+			this.listener = null;
+		}
+		this.reset();
+	}
+
+	// ///////////////////////// INDEX
+
+	/**
+	 * the positions of the matching base elements in [from, to).
+	 */
+	private class MatchTask extends RecursiveTask<int[]> {
+		private static final long serialVersionUID = 1L;
+
+		private int from;
+		private int to;
+
+		public MatchTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected int[] compute() {
+			int[] matches = new int[this.to - this.from];
+			int count = 0;
+			for (int i = this.from; i < this.to; ++i)
+				if (FilteredList.this.accepts(FilteredList.this.baseList
+						.get(i)))
+					matches[count++] = i;
+			return Arrays.copyOf(matches, count);
+		}
+	}
+
+	/**
+	 * Drops the cached results if the base list was modified since they were
+	 * computed.
+	 */
+	private void checkBase() {
+		// (the positions are kept up to date by the listener)
+		if (this.listener != null)
+			return;
+		if (this.probe.modified())
+			this.reset();
+		if (!this.probe.running())
+			this.probe.start();
+	}
+
+	/**
+	 * {@link #accepts(Object)}, for the element at the given base position.
+	 */
+	private boolean accepts(int baseIndex, E element) {
+		if (baseIndex >= this.memoLimit || this.listener != null)
+			return this.accepts(element);
+		if (this.memoKnown.get(baseIndex))
+			return this.memo.get(baseIndex);
+		boolean result = this.accepts(element);
+		this.memoKnown.set(baseIndex);
+		this.memo.set(baseIndex, result);
+		return result;
+	}
+
+	/**
+	 * @return the base positions of the matching elements (the first
+	 *         {@link #matchCount} ones), computing them if needed
+	 *         (<code>null</code> if they are in {@link #tree} or
+	 *         {@link #bitmap}).
+	 */
+	private int[] getMatches() {
+		this.checkBase();
+		if (this.tree != null || this.bitmap != null)
+			return null;
+		// (known positions may miss replaced elements, that the listener sees)
+		if (this.matches == null && this.listener == null) {
+			int[] known = this.knownMatches();
+			if (known != null) {
+				this.matches = known;
+				this.matchCount = known.length;
+			}
+		}
+		if (this.matches == null && this.parallel
+				&& this.baseList instanceof RandomAccess) {
+			int size = this.baseList.size();
+			List<MatchTask> tasks = new ArrayList<MatchTask>();
+			for (int from = 0; from < size; from += FilteredList.CHUNK) {
+				MatchTask task = new MatchTask(from, Math.min(size, from
+						+ FilteredList.CHUNK));
+				ForkJoinPool.commonPool().execute(task);
+				tasks.add(task);
+			}
+			int[] matches = new int[16];
+			int count = 0;
+			for (MatchTask task : tasks) {
+				int[] m = task.join();
+				if (count + m.length > matches.length)
+					matches = Arrays.copyOf(matches, Math.max(count + m.length,
+							matches.length * 2));
+				System.arraycopy(m, 0, matches, count, m.length);
+				count += m.length;
+			}
+			this.matches = matches;
+			this.matchCount = count;
+		}
+		if (this.matches == null) {
+			int[] matches = new int[16];
+			int count = 0;
+			int inindex = -1;
+			for (E e : this.baseList) {
+				++inindex;
+				if (this.accepts(inindex, e)) {
+					if (count == matches.length)
+						matches = Arrays.copyOf(matches, count * 2);
+					matches[count++] = inindex;
+				}
+			}
+			this.matches = matches;
+			this.matchCount = count;
+		}
+		if (this.listener != null) {
+			this.tree = new MatchTree(this.baseList.size(), this.matches,
+					this.matchCount);
+			this.matches = null;
+		} else if (this.compress) {
+			this.bitmap = new MatchBitmap(this.matches, this.matchCount);
+			this.matches = null;
+		}
+		return this.matches;
+	}
+
+	/**
+	 * @return the number of matching elements, computing their positions if
+	 *         needed.
+	 */
+	private int getMatchCount() {
+		this.getMatches();
+		if (this.tree != null)
+			return this.tree.count();
+		return this.bitmap != null ? this.bitmap.count() : this.matchCount;
+	}
+
+	/**
+	 * @return the number of matching elements before the given base position.
+	 */
+	private int rank(int baseIndex) {
+		this.getMatches();
+		return this.search(baseIndex);
+	}
+
+	/**
+	 * {@link #rank(int)}, without checking the base list.
+	 */
+	private int search(int baseIndex) {
+		if (this.tree != null)
+			return this.tree.rank(baseIndex);
+		if (this.bitmap != null)
+			return this.bitmap.rank(baseIndex);
+		int[] matches = this.matches;
+		int low = 0;
+		int high = this.matchCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (matches[mid] < baseIndex)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * @return the base positions of the matching elements, if they can be
+	 *         known without verifying the base elements (see
+	 *         {@link Partition}), or <code>null</code>. Not used while
+	 *         observing the base list.
+	 */
+	int[] knownMatches() {
+		return null;
+	}
+
+	List<E> getBaseList() {
+		return this.baseList;
+	}
+
+	/**
+	 * @return the base position of element <code>index</code> (or the base
+	 *         list size for <code>index == size()</code>).
+	 */
+	int getBaseIndex(int index) throws IndexOutOfBoundsException {
+		int count = this.getMatchCount();
+		if (index >= 0 && index < count) {
+			if (this.tree != null)
+				return this.tree.select(index);
+			return this.bitmap != null ? this.bitmap.select(index)
+					: this.matches[index];
+		}
+		if (index == count)
+			return this.baseList.size();
+		throw new IndexOutOfBoundsException();
+	}
+
+	/**
+	 * updates the cached positions after an element was inserted in the base
+	 * list at the given position (by this list, right after
+	 * {@link #getBaseIndex(int)}).
+	 */
+	void baseAdded(int baseIndex, boolean match) {
+		// (already done by the listener)
+		if (this.listener != null)
+			return;
+		if (this.bitmap != null) {
+			this.bitmap.insert(baseIndex, match);
+			this.baseModified();
+			return;
+		}
+		int k = this.search(baseIndex);
+		if (match && this.matchCount == this.matches.length)
+			this.matches = Arrays.copyOf(this.matches,
+					Math.max(16, this.matchCount * 2));
+		for (int m = this.matchCount - 1; m >= k; --m)
+			this.matches[m + (match ? 1 : 0)] = this.matches[m] + 1;
+		if (match) {
+			this.matches[k] = baseIndex;
+			++this.matchCount;
+		}
+		this.baseModified();
+	}
+
+	/**
+	 * updates the cached positions after element <code>index</code> was
+	 * removed from the base list (by this list, right after
+	 * {@link #getBaseIndex(int)}).
+	 */
+	void baseRemoved(int index) {
+		if (this.listener != null)
+			return;
+		if (this.bitmap != null) {
+			this.bitmap.remove(this.bitmap.select(index));
+			this.baseModified();
+			return;
+		}
+		for (int m = index + 1; m < this.matchCount; ++m)
+			this.matches[m - 1] = this.matches[m] - 1;
+		--this.matchCount;
+		this.baseModified();
+	}
+
+	/**
+	 * drops the cached positions after the base list was modified by this
+	 * list (unless the listener keeps them up to date).
+	 */
+	void baseChanged() {
+		if (this.listener == null)
+			this.reset();
+	}
+
+	/**
+	 * accepts the base list modification made by this list.
+	 */
+	private void baseModified() {
+		this.probe.start();
+		// (memoized results are by base position)
+		if (this.memoLimit > 0) {
+			this.memoKnown.clear();
+			this.memo.clear();
+		}
+	}
+
 	// ///////////////////////// LIST
 
 	private class FilteredListIterator implements ListIterator<E> {
@@ -78,17 +571,10 @@ public abstract class FilteredList<E> extends AbstractSequentialList<E>
 
 		private int getInternalIndex(int index)
 				throws IndexOutOfBoundsException {
-			int inindex = -1;
-			int exindex = -1;
-			for (E e : FilteredList.this.baseList) {
-				++inindex;
-				if (FilteredList.this.verify(e))
-					if (++exindex == index)
-						return inindex;
-			}
-			if (++exindex == index)
-				return inindex + 1;
-			throw new IndexOutOfBoundsException();
+			// (the elements before the first match are skipped anyway)
+			if (index == 0)
+				return 0;
+			return FilteredList.this.getBaseIndex(index);
 		}
 
 		public FilteredListIterator(int index) throws IndexOutOfBoundsException {
@@ -96,92 +582,159 @@ public abstract class FilteredList<E> extends AbstractSequentialList<E>
 					.getInternalIndex(index));
 			this.direction = 0;
 			this.internalDirection = 0;
+			this.lookahead = 0;
+			this.ahead = 0;
+			this.atStart = index == 0;
+		}
+
+		/**
+		 * whether the base iterator is still at the start of the base list
+		 * (see {@link #getInternalIndex(int)}), not past the elements before
+		 * the first match
+		 */
+		private boolean atStart;
+
+		/**
+		 * did hasNext (1), hasPrevious (-1) or none (0) look ahead since the
+		 * iterator last moved
+		 */
+		private int lookahead;
+
+		/**
+		 * base elements read ahead of the iterator position (backwards if
+		 * negative), the last of them being the element found (if any)
+		 */
+		private int ahead;
+		private boolean found;
+		private E peeked;
+
+		/**
+		 * whether the element last returned is known to match (so it isn't
+		 * verified again when going back to it)
+		 */
+		private boolean verified;
+
+		/**
+		 * moves the base iterator back to the iterator position, without
+		 * verifying anything.
+		 */
+		private void rewind() {
+			for (; this.ahead > 0; --this.ahead) {
+				this.baseIterator.previous();
+				this.internalDirection = -1;
+			}
+			for (; this.ahead < 0; ++this.ahead) {
+				this.baseIterator.next();
+				this.internalDirection = 1;
+			}
+			this.lookahead = 0;
+			this.peeked = null;
 		}
 
 		@Override
 		public void add(E e) {
-			this.baseIterator.add(FilteredList.this.update(e));
+			if (this.atStart) {
+				// (added elements go before the first match, like with
+				// getBaseIndex(0))
+				this.hasNext();
+				int skip = this.found ? this.ahead - 1 : this.ahead;
+				this.rewind();
+				for (; skip > 0; --skip)
+					this.baseIterator.next();
+				this.atStart = false;
+			} else
+				this.rewind();
+			this.baseIterator.add(FilteredList.this.admit(e));
+			FilteredList.this.baseChanged();
 			this.direction = 0;
 			this.internalDirection = 0;
 		}
 
 		@Override
 		public boolean hasPrevious() {
-			boolean found = false;
-			int offset = 0;
+			if (this.lookahead == -1)
+				return this.found;
+			this.rewind();
+			if (FilteredList.this.memoLimit > 0)
+				FilteredList.this.checkBase();
+			this.lookahead = -1;
+			this.found = false;
 			while (this.baseIterator.hasPrevious()) {
 				E e = this.baseIterator.previous();
-				++offset;
-				if (FilteredList.this.verify(e)) {
-					found = true;
+				--this.ahead;
+				this.internalDirection = -1;
+				if ((this.direction == 1 && this.verified && this.ahead == -1)
+						|| FilteredList.this.accepts(
+								this.baseIterator.nextIndex(), e)) {
+					this.found = true;
+					this.peeked = e;
 					break;
 				}
 			}
-			for (int i = 0; i < offset; ++i)
-				this.baseIterator.next();
-			this.internalDirection = 1;
-			return found;
+			return this.found;
 		}
 
 		@Override
 		public boolean hasNext() {
-			boolean found = false;
-			int offset = 0;
+			if (this.lookahead == 1)
+				return this.found;
+			this.rewind();
+			if (FilteredList.this.memoLimit > 0)
+				FilteredList.this.checkBase();
+			this.lookahead = 1;
+			this.found = false;
 			while (this.baseIterator.hasNext()) {
 				E e = this.baseIterator.next();
-				++offset;
-				if (FilteredList.this.verify(e)) {
-					found = true;
+				++this.ahead;
+				this.internalDirection = 1;
+				if ((this.direction == -1 && this.verified && this.ahead == 1)
+						|| FilteredList.this.accepts(
+								this.baseIterator.previousIndex(), e)) {
+					this.found = true;
+					this.peeked = e;
 					break;
 				}
 			}
-			for (int i = 0; i < offset; ++i)
-				this.baseIterator.previous();
-			this.internalDirection = 1;
-			return found;
+			return this.found;
 		}
 
 		@Override
 		public E previous() {
-			for (;;) {
-				E e = this.baseIterator.previous();
-				this.internalDirection = -1;
-				if (FilteredList.this.verify(e)) {
-					this.direction = -1;
-					return e;
-				}
-			}
+			if (!this.hasPrevious())
+				throw new NoSuchElementException();
+			E e = this.peeked;
+			this.ahead = 0;
+			this.lookahead = 0;
+			this.peeked = null;
+			this.atStart = false;
+			this.direction = -1;
+			this.verified = true;
+			return e;
 		}
 
 		@Override
 		public E next() {
-			for (;;) {
-				E e = this.baseIterator.next();
-				this.internalDirection = 1;
-				if (FilteredList.this.verify(e)) {
-					this.direction = 1;
-					return e;
-				}
-			}
+			if (!this.hasNext())
+				throw new NoSuchElementException();
+			E e = this.peeked;
+			this.ahead = 0;
+			this.lookahead = 0;
+			this.peeked = null;
+			this.atStart = false;
+			this.direction = 1;
+			this.verified = true;
+			return e;
 		}
 
-		// NOTE only method that reads the base list through index
 		@Override
 		public int previousIndex() {
-			int basePreviousIndex = this.baseIterator.previousIndex();
-			int prevIndex = -1;
-			for (int i = 0; i <= basePreviousIndex; ++i)
-				if (FilteredList.this.verify(FilteredList.this.baseList.get(i)))
-					++prevIndex;
-			return prevIndex;
+			return this.nextIndex() - 1;
 		}
 
 		@Override
 		public int nextIndex() {
-			if (this.hasNext())
-				return this.previousIndex() + 1;
-			else
-				return FilteredList.this.size();
+			return FilteredList.this.rank(this.baseIterator.nextIndex()
+					- this.ahead);
 		}
 
 		/**
@@ -213,8 +766,10 @@ public abstract class FilteredList<E> extends AbstractSequentialList<E>
 
 		@Override
 		public void remove() {
+			this.rewind();
 			this.correctDirection();
 			this.baseIterator.remove();
+			FilteredList.this.baseChanged();
 			this.direction = 0;
 			this.internalDirection = 0;
 
@@ -222,8 +777,11 @@ public abstract class FilteredList<E> extends AbstractSequentialList<E>
 
 		@Override
 		public void set(E e) {
+			this.rewind();
 			this.correctDirection();
-			this.baseIterator.set(FilteredList.this.update(e));
+			this.baseIterator.set(FilteredList.this.admit(e));
+			FilteredList.this.baseChanged();
+			this.verified = false;
 		}
 
 	}
@@ -235,11 +793,146 @@ public abstract class FilteredList<E> extends AbstractSequentialList<E>
 
 	@Override
 	public int size() {
-		int size = 0;
-		for (E e : this.baseList)
-			if (this.verify(e))
-				++size;
-		return size;
+		return this.getMatchCount();
+	}
+
+	/**
+	 * Removes the matching elements from the base list in a single pass
+	 * (using the base list's own {@link List#removeIf(Predicate)}), the other
+	 * base elements are never touched.
+	 */
+	@Override
+	public boolean removeIf(final Predicate<? super E> filter) {
+		if (filter == null)
+			throw new NullPointerException();
+		boolean removed = this.baseList.removeIf(new Predicate<E>() {
+			@Override
+			public boolean test(E e) {
+				return FilteredList.this.accepts(e) && filter.test(e);
+			}
+		});
+		if (removed) {
+			++this.modCount;
+			this.baseChanged();
+		}
+		return removed;
+	}
+
+	@Override
+	public boolean removeAll(final Collection<?> c) {
+		if (c == null)
+			throw new NullPointerException();
+		return this.removeIf(new Predicate<E>() {
+			@Override
+			public boolean test(E e) {
+				return c.contains(e);
+			}
+		});
+	}
+
+	@Override
+	public boolean retainAll(final Collection<?> c) {
+		if (c == null)
+			throw new NullPointerException();
+		return this.removeIf(new Predicate<E>() {
+			@Override
+			public boolean test(E e) {
+				return !c.contains(e);
+			}
+		});
+	}
+
+	@Override
+	public void clear() {
+		this.removeIf(new Predicate<E>() {
+			@Override
+			public boolean test(E e) {
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Splits a range of the base list (or of the matching elements, when
+	 * their positions are known).
+	 */
+	private class FilteredSpliterator implements Spliterator<E> {
+		// null if the range is in the base list
+		private int[] matches;
+		private int from;
+		private int to;
+
+		public FilteredSpliterator(int[] matches, int from, int to) {
+			this.matches = matches;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super E> action) {
+			while (this.from < this.to) {
+				int i = this.from++;
+				if (this.matches != null) {
+					action.accept(FilteredList.this.baseList
+							.get(this.matches[i]));
+					return true;
+				}
+				E e = FilteredList.this.baseList.get(i);
+				if (FilteredList.this.accepts(e)) {
+					action.accept(e);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public Spliterator<E> trySplit() {
+			if (this.to - this.from <= FilteredList.CHUNK)
+				return null;
+			int mid = (this.from + this.to) >>> 1;
+			Spliterator<E> s = new FilteredSpliterator(this.matches,
+					this.from, mid);
+			this.from = mid;
+			return s;
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.to - this.from;
+		}
+
+		@Override
+		public int characteristics() {
+			if (this.matches != null)
+				return Spliterator.ORDERED | Spliterator.SIZED
+						| Spliterator.SUBSIZED;
+			return Spliterator.ORDERED;
+		}
+	}
+
+	/**
+	 * The spliterator is only {@link Spliterator#SIZED} if the positions of
+	 * the matching elements are already known. Over a {@link RandomAccess}
+	 * base list, it splits the base list (so {@link #verify(Object)} can be
+	 * called from several threads at once by parallel streams).
+	 */
+	@Override
+	public Spliterator<E> spliterator() {
+		this.checkBase();
+		if (this.baseList instanceof RandomAccess) {
+			if (this.tree != null)
+				return new FilteredSpliterator(this.tree.toArray(), 0,
+						this.tree.count());
+			if (this.matches != null)
+				return new FilteredSpliterator(this.matches, 0,
+						this.matchCount);
+			return new FilteredSpliterator(null, 0, this.baseList.size());
+		}
+		if (this.matches != null || this.tree != null || this.bitmap != null)
+			return Spliterators.spliterator(this, Spliterator.ORDERED);
+		return Spliterators.spliteratorUnknownSize(this.iterator(),
+				Spliterator.ORDERED);
 	}
 
 }
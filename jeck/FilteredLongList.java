@@ -0,0 +1,175 @@
+package jeck;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.RandomAccess;
+
+/**
+ * A filtered view on a <code>long</code> array, like a {@link FilteredList}
+ * on a list of longs, without boxing the elements.
+ * <p>
+ * Elements are verified as <code>long</code>s, and can be read (with
+ * {@link #getLong(int)}, {@link #longIterator()} or {@link #toLongArray()}) and
+ * replaced (with {@link #setLong(int, long)}) without boxing them. The array
+ * can't grow, so elements can't be added to the list or removed from it.
+ * <p>
+ * The positions of the matching elements are cached, so elements of the
+ * array replaced without going through this list require a call to
+ * {@link #invalidate()}.
+ * 
+ * @author Reda El Khattabi
+ */
+public abstract class FilteredLongList extends AbstractList<Long> implements
+		RandomAccess {
+
+	private long[] base;
+	private int baseSize;
+
+	// positions of the matching elements, null when outdated
+	private int[] matches;
+	private int matchCount;
+
+	public FilteredLongList(long[] base) {
+		this(base, base.length);
+	}
+
+	/**
+	 * @param size
+	 *            the number of elements of the array in the list, from the
+	 *            first one.
+	 */
+	public FilteredLongList(long[] base, int size) {
+		if (size < 0 || size > base.length)
+			throw new IndexOutOfBoundsException();
+		this.base = base;
+		this.baseSize = size;
+	}
+
+	// ///////////////////////// API
+
+	/**
+	 * Checks whether the element can be considered a member of this list
+	 */
+	protected abstract boolean verify(long element);
+
+	/**
+	 * Updates the element before storing it in the array, so that a
+	 * subsequent call to {@link #verify(long)} would be true.
+	 * <p>
+	 * The default implementation return valid list elements untouched, and
+	 * rejects everything else.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if there is no way to make the element a member of the
+	 *             filtered list.
+	 */
+	protected long update(long element) throws IllegalArgumentException {
+		if (this.verify(element))
+			return element;
+		throw new IllegalArgumentException();
+	}
+
+	/**
+	 * Drops the cached positions of the matching elements, they will be
+	 * computed again when needed.
+	 */
+	public void invalidate() {
+		this.matches = null;
+	}
+
+	private int[] getMatches() {
+		if (this.matches == null) {
+			int[] matches = new int[16];
+			int count = 0;
+			for (int i = 0; i < this.baseSize; ++i)
+				if (this.verify(this.base[i])) {
+					if (count == matches.length)
+						matches = Arrays.copyOf(matches, count * 2);
+					matches[count++] = i;
+				}
+			this.matches = matches;
+			this.matchCount = count;
+		}
+		return this.matches;
+	}
+
+	private int getBaseIndex(int index) throws IndexOutOfBoundsException {
+		int[] matches = this.getMatches();
+		if (index < 0 || index >= this.matchCount)
+			throw new IndexOutOfBoundsException();
+		return matches[index];
+	}
+
+	public long getLong(int index) {
+		return this.base[this.getBaseIndex(index)];
+	}
+
+	public long setLong(int index, long element) {
+		int i = this.getBaseIndex(index);
+		long e = this.update(element);
+		long old = this.base[i];
+		this.base[i] = e;
+		// (the cached positions stay valid, unless e doesn't match)
+		if (!this.verify(e))
+			this.invalidate();
+		return old;
+	}
+
+	/**
+	 * @return the elements of the list, in a new array.
+	 */
+	public long[] toLongArray() {
+		int[] matches = this.getMatches();
+		long[] a = new long[this.matchCount];
+		for (int k = 0; k < a.length; ++k)
+			a[k] = this.base[matches[k]];
+		return a;
+	}
+
+	/**
+	 * Iterates without boxing the elements (using
+	 * {@link PrimitiveIterator.OfLong#nextLong()}).
+	 */
+	public PrimitiveIterator.OfLong longIterator() {
+		return new PrimitiveIterator.OfLong() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return this.next < FilteredLongList.this.size();
+			}
+
+			@Override
+			public long nextLong() {
+				if (!this.hasNext())
+					throw new NoSuchElementException();
+				return FilteredLongList.this.getLong(this.next++);
+			}
+		};
+	}
+
+	// ///////////////////////// LIST
+
+	@Override
+	public Long get(int index) {
+		return this.getLong(index);
+	}
+
+	@Override
+	public Long set(int index, Long element) {
+		return this.setLong(index, element);
+	}
+
+	@Override
+	public int size() {
+		this.getMatches();
+		return this.matchCount;
+	}
+
+	@Override
+	public PrimitiveIterator.OfLong iterator() {
+		return this.longIterator();
+	}
+}
@@ -0,0 +1,344 @@
+package jeck;
+
+import java.util.Arrays;
+
+/**
+ * The positions of the matching elements of a {@link FilteredList}, as a
+ * compressed bitmap.
+ * <p>
+ * Positions are split in containers of 2^16 base positions, each of them
+ * stored as a sorted array (for few positions), a bitmap, or a list of runs of
+ * consecutive positions (for long runs), whichever is the smallest, so both
+ * very sparse and very dense positions take little memory. The number of
+ * positions before each container (and before each part of a bitmap, or each
+ * run) is kept, so finding the position of a matching element and counting
+ * the matching elements before a position take near constant time.
+ * <p>
+ * Inserting or removing a base element rebuilds the containers after it.
+ *
+ * @author Reda El Khattabi
+ */
+class MatchBitmap {
+
+	private static final int BITS = 16;
+
+	private static final int MASK = (1 << MatchBitmap.BITS) - 1;
+
+	// bitmap words counted together
+	private static final int GROUP = 16;
+
+	private static abstract class Container {
+		/**
+		 * the number of positions before the given one.
+		 */
+		abstract int rank(int low);
+
+		/**
+		 * the position of the given element.
+		 */
+		abstract int select(int k);
+
+		/**
+		 * adds <code>high</code> and the positions to the array, from
+		 * <code>from</code>.
+		 *
+		 * @return the new end of the array.
+		 */
+		abstract int decode(int high, int[] a, int from);
+	}
+
+	private static class ArrayContainer extends Container {
+		private char[] values;
+
+		public ArrayContainer(int[] low, int n) {
+			this.values = new char[n];
+			for (int i = 0; i < n; ++i)
+				this.values[i] = (char) low[i];
+		}
+
+		@Override
+		int rank(int low) {
+			int i = Arrays.binarySearch(this.values, (char) low);
+			return i < 0 ? -i - 1 : i;
+		}
+
+		@Override
+		int select(int k) {
+			return this.values[k];
+		}
+
+		@Override
+		int decode(int high, int[] a, int from) {
+			for (char v : this.values)
+				a[from++] = high | v;
+			return from;
+		}
+	}
+
+	private static class BitmapContainer extends Container {
+		private long[] words;
+		// positions before each group of words (and in all of them)
+		private int[] groups;
+
+		public BitmapContainer(int[] low, int n) {
+			this.words = new long[1 << (MatchBitmap.BITS - 6)];
+			for (int i = 0; i < n; ++i)
+				this.words[low[i] >>> 6] |= 1L << low[i];
+			this.groups = new int[this.words.length / MatchBitmap.GROUP + 1];
+			for (int g = 1; g < this.groups.length; ++g) {
+				int c = this.groups[g - 1];
+				for (int w = (g - 1) * MatchBitmap.GROUP; w < g
+						* MatchBitmap.GROUP; ++w)
+					c += Long.bitCount(this.words[w]);
+				this.groups[g] = c;
+			}
+		}
+
+		@Override
+		int rank(int low) {
+			int w = low >>> 6;
+			int c = this.groups[w / MatchBitmap.GROUP];
+			for (int i = w - w % MatchBitmap.GROUP; i < w; ++i)
+				c += Long.bitCount(this.words[i]);
+			return c + Long.bitCount(this.words[w] & ((1L << low) - 1));
+		}
+
+		@Override
+		int select(int k) {
+			int low = 0;
+			int high = this.groups.length - 1;
+			while (low + 1 < high) {
+				int mid = (low + high) >>> 1;
+				if (this.groups[mid] <= k)
+					low = mid;
+				else
+					high = mid;
+			}
+			k -= this.groups[low];
+			for (int w = low * MatchBitmap.GROUP;; ++w) {
+				int c = Long.bitCount(this.words[w]);
+				if (k < c) {
+					long x = this.words[w];
+					for (; k > 0; --k)
+						x &= x - 1;
+					return (w << 6) + Long.numberOfTrailingZeros(x);
+				}
+				k -= c;
+			}
+		}
+
+		@Override
+		int decode(int high, int[] a, int from) {
+			for (int w = 0; w < this.words.length; ++w)
+				for (long x = this.words[w]; x != 0; x &= x - 1)
+					a[from++] = high | (w << 6)
+							+ Long.numberOfTrailingZeros(x);
+			return from;
+		}
+	}
+
+	private static class RunContainer extends Container {
+		private char[] starts;
+		// run lengths minus one
+		private char[] lengths;
+		// positions before each run
+		private int[] before;
+
+		public RunContainer(int[] low, int n, int runs) {
+			this.starts = new char[runs];
+			this.lengths = new char[runs];
+			this.before = new int[runs];
+			int r = -1;
+			for (int i = 0; i < n; ++i)
+				if (i > 0 && low[i] == low[i - 1] + 1)
+					++this.lengths[r];
+				else {
+					++r;
+					this.starts[r] = (char) low[i];
+					this.before[r] = i;
+				}
+		}
+
+		/**
+		 * the last run with the given property, below the given value.
+		 */
+		private int find(int value, boolean position) {
+			int low = 0;
+			int high = this.starts.length;
+			while (low + 1 < high) {
+				int mid = (low + high) >>> 1;
+				if ((position ? this.starts[mid] : this.before[mid]) <= value)
+					low = mid;
+				else
+					high = mid;
+			}
+			return low;
+		}
+
+		@Override
+		int rank(int low) {
+			int r = this.find(low, true);
+			if (low <= this.starts[r])
+				return this.before[r];
+			return this.before[r]
+					+ Math.min(low - this.starts[r], this.lengths[r] + 1);
+		}
+
+		@Override
+		int select(int k) {
+			int r = this.find(k, false);
+			return this.starts[r] + k - this.before[r];
+		}
+
+		@Override
+		int decode(int high, int[] a, int from) {
+			for (int r = 0; r < this.starts.length; ++r)
+				for (int i = 0; i <= this.lengths[r]; ++i)
+					a[from++] = high | (this.starts[r] + i);
+			return from;
+		}
+	}
+
+	// null for containers without positions
+	private Container[] containers;
+	private int size;
+
+	// positions before each container (and in all of them)
+	private int[] counts;
+
+	/**
+	 * @param matches
+	 *            the (sorted) positions of the matching elements, the first
+	 *            <code>count</code> ones.
+	 */
+	public MatchBitmap(int[] matches, int count) {
+		this.containers = new Container[16];
+		this.size = 0;
+		this.counts = new int[17];
+		this.append(matches, 0, count);
+	}
+
+	/**
+	 * adds containers for the given positions, after the existing ones.
+	 */
+	private void append(int[] matches, int from, int to) {
+		int[] low = new int[Math.min(to - from, 1 << MatchBitmap.BITS)];
+		int i = from;
+		while (i < to) {
+			int high = matches[i] >>> MatchBitmap.BITS;
+			int n = 0;
+			int runs = 0;
+			for (; i < to && matches[i] >>> MatchBitmap.BITS == high; ++i) {
+				low[n] = matches[i] & MatchBitmap.MASK;
+				if (n == 0 || low[n] != low[n - 1] + 1)
+					++runs;
+				++n;
+			}
+			// (sizes in bytes)
+			int array = 2 * n;
+			int bitmap = 1 << (MatchBitmap.BITS - 3);
+			int run = 8 * runs;
+			Container c;
+			if (run < array && run < bitmap)
+				c = new RunContainer(low, n, runs);
+			else if (array <= bitmap)
+				c = new ArrayContainer(low, n);
+			else
+				c = new BitmapContainer(low, n);
+			int total = this.counts[this.size];
+			while (this.size <= high) {
+				if (this.size == this.containers.length) {
+					this.containers = Arrays.copyOf(this.containers,
+							this.size * 2);
+					this.counts = Arrays.copyOf(this.counts, this.size * 2 + 1);
+				}
+				this.containers[this.size] = null;
+				this.counts[++this.size] = total;
+			}
+			this.containers[high] = c;
+			this.counts[this.size] = total + n;
+		}
+	}
+
+	/**
+	 * the number of matching elements.
+	 */
+	public int count() {
+		return this.counts[this.size];
+	}
+
+	/**
+	 * the number of matching elements before the given base position.
+	 */
+	public int rank(int position) {
+		int high = position >>> MatchBitmap.BITS;
+		if (high >= this.size)
+			return this.count();
+		Container c = this.containers[high];
+		return this.counts[high]
+				+ (c == null ? 0 : c.rank(position & MatchBitmap.MASK));
+	}
+
+	/**
+	 * the base position of the given matching element.
+	 */
+	public int select(int k) {
+		if (k < 0 || k >= this.count())
+			throw new IndexOutOfBoundsException();
+		int low = 0;
+		int high = this.size;
+		while (low + 1 < high) {
+			int mid = (low + high) >>> 1;
+			if (this.counts[mid] <= k)
+				low = mid;
+			else
+				high = mid;
+		}
+		return (low << MatchBitmap.BITS)
+				| this.containers[low].select(k - this.counts[low]);
+	}
+
+	/**
+	 * moves the positions from the given one by <code>delta</code>,
+	 * rebuilding the containers from there.
+	 */
+	private void shift(int position, int delta, boolean match) {
+		int first = Math.min(position >>> MatchBitmap.BITS, this.size);
+		int[] a = new int[this.count() - this.counts[first] + 1];
+		int n = 0;
+		for (int h = first; h < this.size; ++h)
+			if (this.containers[h] != null)
+				n = this.containers[h].decode(h << MatchBitmap.BITS, a, n);
+		int k = 0;
+		while (k < n && a[k] < position)
+			++k;
+		if (delta < 0) {
+			// (the removed position, if it matched)
+			if (k < n && a[k] == position)
+				System.arraycopy(a, k + 1, a, k, --n - k);
+		} else if (match) {
+			System.arraycopy(a, k, a, k + 1, n - k);
+			a[k] = position - delta;
+			++n;
+		}
+		for (int i = k; i < n; ++i)
+			a[i] += delta;
+		Arrays.fill(this.containers, first, this.size, null);
+		this.size = first;
+		this.append(a, 0, n);
+	}
+
+	/**
+	 * a base element was inserted at the given position.
+	 */
+	public void insert(int position, boolean match) {
+		this.shift(position, 1, match);
+	}
+
+	/**
+	 * the base element at the given position was removed.
+	 */
+	public void remove(int position) {
+		this.shift(position, -1, false);
+	}
+}
@@ -0,0 +1,250 @@
+package jeck;
+
+import java.util.Random;
+
+/**
+ * The positions of the matching elements of a {@link FilteredList}, kept up
+ * to date as base elements are inserted, removed or replaced.
+ * <p>
+ * Backed by a treap with one node per base element (keyed by position, and
+ * counting the matching elements of each subtree), so finding the position of
+ * a matching element, counting the matching elements before a position, and
+ * inserting, removing or replacing a base element are all O(log n).
+ *
+ * @author Reda El Khattabi
+ */
+class MatchTree {
+
+	private static class Node {
+		private boolean match;
+		private int priority;
+		private int size;
+		private int count;
+		private Node left;
+		private Node right;
+	}
+
+	private Node root;
+
+	private Random random;
+
+	/**
+	 * @param size
+	 *            the size of the base list.
+	 * @param matches
+	 *            the (sorted) positions of the matching elements, the first
+	 *            <code>count</code> ones.
+	 */
+	public MatchTree(int size, int[] matches, int count) {
+		this.random = new Random();
+		// (cartesian tree on the priorities, built in linear time)
+		Node[] stack = new Node[16];
+		int top = 0;
+		int m = 0;
+		for (int i = 0; i < size; ++i) {
+			Node x = new Node();
+			x.match = m < count && matches[m] == i;
+			if (x.match)
+				++m;
+			x.priority = this.random.nextInt();
+			Node last = null;
+			while (top > 0 && stack[top - 1].priority < x.priority)
+				last = stack[--top];
+			x.left = last;
+			if (top > 0)
+				stack[top - 1].right = x;
+			if (top == stack.length) {
+				Node[] s = new Node[top * 2];
+				System.arraycopy(stack, 0, s, 0, top);
+				stack = s;
+			}
+			stack[top++] = x;
+		}
+		this.root = top > 0 ? stack[0] : null;
+		this.total(this.root);
+	}
+
+	private void total(Node n) {
+		if (n == null)
+			return;
+		this.total(n.left);
+		this.total(n.right);
+		this.update(n);
+	}
+
+	private int size(Node n) {
+		return n == null ? 0 : n.size;
+	}
+
+	private int count(Node n) {
+		return n == null ? 0 : n.count;
+	}
+
+	private Node update(Node n) {
+		n.size = 1 + this.size(n.left) + this.size(n.right);
+		n.count = (n.match ? 1 : 0) + this.count(n.left) + this.count(n.right);
+		return n;
+	}
+
+	/**
+	 * the number of base elements.
+	 */
+	public int size() {
+		return this.size(this.root);
+	}
+
+	/**
+	 * the number of matching elements.
+	 */
+	public int count() {
+		return this.count(this.root);
+	}
+
+	/**
+	 * the number of matching elements before the given base position.
+	 */
+	public int rank(int position) {
+		int c = 0;
+		Node n = this.root;
+		while (n != null) {
+			int left = this.size(n.left);
+			if (position <= left)
+				n = n.left;
+			else {
+				c += this.count(n.left) + (n.match ? 1 : 0);
+				position -= left + 1;
+				n = n.right;
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * the base position of the given matching element.
+	 */
+	public int select(int k) {
+		int base = 0;
+		Node n = this.root;
+		while (n != null) {
+			int left = this.count(n.left);
+			if (k < left)
+				n = n.left;
+			else if (k == left && n.match)
+				return base + this.size(n.left);
+			else {
+				k -= left + (n.match ? 1 : 0);
+				base += this.size(n.left) + 1;
+				n = n.right;
+			}
+		}
+		throw new IndexOutOfBoundsException();
+	}
+
+	/**
+	 * the base positions of the matching elements.
+	 */
+	public int[] toArray() {
+		int[] a = new int[this.count()];
+		this.collect(this.root, 0, a, 0);
+		return a;
+	}
+
+	private int collect(Node n, int base, int[] a, int k) {
+		if (n == null)
+			return k;
+		k = this.collect(n.left, base, a, k);
+		int position = base + this.size(n.left);
+		if (n.match)
+			a[k++] = position;
+		return this.collect(n.right, position + 1, a, k);
+	}
+
+	private Node rotateLeft(Node n) {
+		Node r = n.right;
+		n.right = r.left;
+		r.left = this.update(n);
+		return this.update(r);
+	}
+
+	private Node rotateRight(Node n) {
+		Node l = n.left;
+		n.left = l.right;
+		l.right = this.update(n);
+		return this.update(l);
+	}
+
+	private Node insert(Node n, int position, Node x) {
+		if (n == null)
+			return x;
+		if (position <= this.size(n.left)) {
+			n.left = this.insert(n.left, position, x);
+			if (n.left.priority > n.priority)
+				return this.rotateRight(n);
+		} else {
+			n.right = this.insert(n.right, position - this.size(n.left) - 1,
+					x);
+			if (n.right.priority > n.priority)
+				return this.rotateLeft(n);
+		}
+		return this.update(n);
+	}
+
+	/**
+	 * a base element was inserted at the given position.
+	 */
+	public void insert(int position, boolean match) {
+		Node x = new Node();
+		x.match = match;
+		x.priority = this.random.nextInt();
+		this.root = this.insert(this.root, position, this.update(x));
+	}
+
+	private Node merge(Node a, Node b) {
+		if (a == null)
+			return b;
+		if (b == null)
+			return a;
+		if (a.priority > b.priority) {
+			a.right = this.merge(a.right, b);
+			return this.update(a);
+		}
+		b.left = this.merge(a, b.left);
+		return this.update(b);
+	}
+
+	private Node remove(Node n, int position) {
+		int left = this.size(n.left);
+		if (position < left)
+			n.left = this.remove(n.left, position);
+		else if (position > left)
+			n.right = this.remove(n.right, position - left - 1);
+		else
+			return this.merge(n.left, n.right);
+		return this.update(n);
+	}
+
+	/**
+	 * the base element at the given position was removed.
+	 */
+	public void remove(int position) {
+		this.root = this.remove(this.root, position);
+	}
+
+	private void set(Node n, int position, boolean match) {
+		int left = this.size(n.left);
+		if (position < left)
+			this.set(n.left, position, match);
+		else if (position > left)
+			this.set(n.right, position - left - 1, match);
+		else
+			n.match = match;
+		this.update(n);
+	}
+
+	/**
+	 * the base element at the given position was replaced.
+	 */
+	public void set(int position, boolean match) {
+		this.set(this.root, position, match);
+	}
+}
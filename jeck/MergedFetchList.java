@@ -0,0 +1,123 @@
+package jeck;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link FetchList} merging several sorted sources (such as the partitions
+ * of a table) into one sorted list.
+ * <p>
+ * Each source is a {@link FetchList} used only for its {@link #fetch()} (and
+ * {@link #fetch(int)}, {@link #count()}) implementation: its records are
+ * never added to it, and it shouldn't be used otherwise. Records are merged
+ * with a heap of the next record of each source, records comparing equal are
+ * taken from the first source first.
+ * <p>
+ * With an executor, every source reads ahead in the background (see
+ * {@link FetchList#read_ahead(Executor, int)}), so all the sources are fetched
+ * in parallel.
+ *
+ * @author Reda El Khattabi
+ */
+public class MergedFetchList<T> extends FetchList<T> {
+
+	/**
+	 * the next records of a source.
+	 */
+	private class Head {
+		private int source;
+		private Deque<T> records;
+
+		public Head(int source) {
+			this.source = source;
+			this.records = new ArrayDeque<T>();
+		}
+
+		/**
+		 * @return false if the source has no more records.
+		 */
+		public boolean fill() {
+			if (this.records.isEmpty()) {
+				FetchList<T> s = MergedFetchList.this.sources.get(this.source);
+				this.records.addAll(s.take(Math.max(1, s.max_batch())));
+			}
+			return !this.records.isEmpty();
+		}
+	}
+
+	private List<FetchList<T>> sources;
+
+	private Comparator<? super T> comparator;
+
+	// sources with records, by their next record
+	private PriorityQueue<Head> heads;
+
+	// sources to fill before taking the next record
+	private List<Head> empty;
+
+	public MergedFetchList(Comparator<? super T> comparator,
+			List<? extends FetchList<T>> sources) {
+		this.comparator = comparator;
+		this.sources = new ArrayList<FetchList<T>>(sources);
+		this.heads = new PriorityQueue<Head>(Math.max(1, sources.size()),
+				new Comparator<Head>() {
+					@Override
+					public int compare(Head a, Head b) {
+						int c = MergedFetchList.this.comparator.compare(
+								a.records.peek(), b.records.peek());
+						return c != 0 ? c : a.source - b.source;
+					}
+				});
+		this.empty = new ArrayList<Head>();
+		for (int i = this.sources.size() - 1; i >= 0; --i)
+			this.empty.add(new Head(i));
+	}
+
+	/**
+	 * @param window
+	 *            the number of records each source reads ahead.
+	 */
+	public MergedFetchList(Comparator<? super T> comparator,
+			List<? extends FetchList<T>> sources, Executor executor, int window) {
+		this(comparator, sources);
+		for (FetchList<T> s : this.sources)
+			s.read_ahead(executor, window);
+	}
+
+	@Override
+	protected T fetch() throws NoSuchElementException {
+		// (a source failing to fill stays empty, and is filled again next time)
+		while (!this.empty.isEmpty()) {
+			Head h = this.empty.get(this.empty.size() - 1);
+			if (h.fill())
+				this.heads.add(h);
+			this.empty.remove(this.empty.size() - 1);
+		}
+		Head h = this.heads.poll();
+		if (h == null)
+			throw new NoSuchElementException();
+		T t = h.records.poll();
+		this.empty.add(h);
+		return t;
+	}
+
+	/**
+	 * The sum of the counts of the sources.
+	 *
+	 * @throws UnsupportedOperationException
+	 *             if any of the sources can't be counted.
+	 */
+	@Override
+	protected int count() throws UnsupportedOperationException {
+		int n = 0;
+		for (FetchList<T> s : this.sources)
+			n += s.count();
+		return n;
+	}
+}
@@ -0,0 +1,264 @@
+package jeck;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
+
+/**
+ * A view on another {@link List}, publishing its modifications to
+ * {@link Listener}s.
+ * <p>
+ * Every element inserted, removed or replaced through this list (or its
+ * iterators and sub lists) is published after the base list is modified, one
+ * element at a time, so listeners can keep track of the list contents without
+ * reading it again (see {@link FilteredList#observe(boolean)}). Modifications
+ * made to the base list directly are not published.
+ * <p>
+ * Listeners are called by the thread modifying the list, and shouldn't modify
+ * it themselves.
+ *
+ * @author Reda El Khattabi
+ */
+public class ObservableList<E> extends AbstractList<E> {
+
+	/**
+	 * Receives the modifications of an {@link ObservableList}.
+	 */
+	public static interface Listener<E> {
+		/**
+		 * the element was inserted at the given index.
+		 */
+		void inserted(int index, E element);
+
+		/**
+		 * the element at the given index was removed.
+		 */
+		void removed(int index, E element);
+
+		/**
+		 * the element at the given index was replaced.
+		 */
+		void replaced(int index, E old, E element);
+	}
+
+	private List<E> baseList;
+
+	private List<Listener<E>> listeners;
+
+	public ObservableList(List<E> baseList) {
+		if (baseList == null)
+			throw new NullPointerException();
+		this.baseList = baseList;
+		this.listeners = new ArrayList<Listener<E>>();
+	}
+
+	public void addListener(Listener<E> listener) {
+		if (listener == null)
+			throw new NullPointerException();
+		this.listeners.add(listener);
+	}
+
+	public void removeListener(Listener<E> listener) {
+		this.listeners.remove(listener);
+	}
+
+	private void inserted(int index, E element) {
+		for (int i = 0; i < this.listeners.size(); ++i)
+			this.listeners.get(i).inserted(index, element);
+	}
+
+	private void removed(int index, E element) {
+		for (int i = 0; i < this.listeners.size(); ++i)
+			this.listeners.get(i).removed(index, element);
+	}
+
+	private void replaced(int index, E old, E element) {
+		for (int i = 0; i < this.listeners.size(); ++i)
+			this.listeners.get(i).replaced(index, old, element);
+	}
+
+	@Override
+	public E get(int index) {
+		return this.baseList.get(index);
+	}
+
+	@Override
+	public int size() {
+		return this.baseList.size();
+	}
+
+	@Override
+	public E set(int index, E element) {
+		E old = this.baseList.set(index, element);
+		this.replaced(index, old, element);
+		return old;
+	}
+
+	@Override
+	public void add(int index, E element) {
+		this.baseList.add(index, element);
+		++this.modCount;
+		this.inserted(index, element);
+	}
+
+	@Override
+	public E remove(int index) {
+		E old = this.baseList.remove(index);
+		++this.modCount;
+		this.removed(index, old);
+		return old;
+	}
+
+	@Override
+	public boolean addAll(int index, Collection<? extends E> c) {
+		List<E> l = new ArrayList<E>(c);
+		if (!this.baseList.addAll(index, l))
+			return false;
+		++this.modCount;
+		for (E e : l)
+			this.inserted(index++, e);
+		return true;
+	}
+
+	@Override
+	protected void removeRange(int fromIndex, int toIndex) {
+		List<E> range = this.baseList.subList(fromIndex, toIndex);
+		List<E> l = new ArrayList<E>(range);
+		range.clear();
+		++this.modCount;
+		for (E e : l)
+			this.removed(fromIndex, e);
+	}
+
+	/**
+	 * Removes the elements in a single pass (moving the remaining elements
+	 * down once, if the base list is {@link RandomAccess}).
+	 */
+	@Override
+	public boolean removeIf(Predicate<? super E> filter) {
+		if (filter == null)
+			throw new NullPointerException();
+		// (the filter is applied first, so the list is unchanged if it fails)
+		BitSet remove = new BitSet();
+		int size = 0;
+		for (E e : this.baseList) {
+			if (filter.test(e))
+				remove.set(size);
+			++size;
+		}
+		if (remove.isEmpty())
+			return false;
+		List<E> removed = new ArrayList<E>(remove.cardinality());
+		if (this.baseList instanceof RandomAccess) {
+			int kept = 0;
+			for (int i = 0; i < size; ++i) {
+				E e = this.baseList.get(i);
+				if (remove.get(i))
+					removed.add(e);
+				else {
+					if (kept != i)
+						this.baseList.set(kept, e);
+					++kept;
+				}
+			}
+			this.baseList.subList(kept, size).clear();
+		} else {
+			Iterator<E> it = this.baseList.iterator();
+			for (int i = 0; i < size; ++i) {
+				E e = it.next();
+				if (remove.get(i)) {
+					it.remove();
+					removed.add(e);
+				}
+			}
+		}
+		++this.modCount;
+		int k = 0;
+		for (int i = remove.nextSetBit(0); i >= 0; i = remove.nextSetBit(i + 1)) {
+			this.removed(i - k, removed.get(k));
+			++k;
+		}
+		return true;
+	}
+
+	/**
+	 * Iterates with the base list iterator.
+	 */
+	@Override
+	public ListIterator<E> listIterator(final int index) {
+		final ListIterator<E> it = this.baseList.listIterator(index);
+		return new ListIterator<E>() {
+			// index of the element last returned, -1 if none
+			private int last = -1;
+			private E element;
+
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public E next() {
+				this.element = it.next();
+				this.last = it.previousIndex();
+				return this.element;
+			}
+
+			@Override
+			public boolean hasPrevious() {
+				return it.hasPrevious();
+			}
+
+			@Override
+			public E previous() {
+				this.element = it.previous();
+				this.last = it.nextIndex();
+				return this.element;
+			}
+
+			@Override
+			public int nextIndex() {
+				return it.nextIndex();
+			}
+
+			@Override
+			public int previousIndex() {
+				return it.previousIndex();
+			}
+
+			@Override
+			public void remove() {
+				it.remove();
+				++ObservableList.this.modCount;
+				ObservableList.this.removed(this.last, this.element);
+				this.last = -1;
+			}
+
+			@Override
+			public void set(E e) {
+				it.set(e);
+				ObservableList.this.replaced(this.last, this.element, e);
+				this.element = e;
+			}
+
+			@Override
+			public void add(E e) {
+				it.add(e);
+				++ObservableList.this.modCount;
+				ObservableList.this.inserted(it.previousIndex(), e);
+				this.last = -1;
+			}
+		};
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return this.listIterator(0);
+	}
+}
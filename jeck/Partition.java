@@ -0,0 +1,204 @@
+package jeck;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * {@link FilteredList}s on the same base list, one for each value of a
+ * classifier function (such as the status of each element).
+ * <p>
+ * The views find the positions of their elements with a single pass on the
+ * base list, shared by all of them: each base element is classified once, and
+ * the positions of the elements of every class are kept, so computing them
+ * again after the base list is modified costs one pass for all the views,
+ * instead of one for each of them.
+ * <p>
+ * Each view is a regular {@link FilteredList} (a
+ * {@link RandomAccessFilteredList} on {@link RandomAccess} base lists), whose
+ * elements are the base elements of its class: they can be modified through
+ * it, and elements of other classes are rejected. Like for
+ * {@link FilteredList#invalidate()}, base elements replaced without going
+ * through the views require a call to {@link #invalidate()} (or to the
+ * {@link FilteredList#invalidate()} of each view concerned), except for the
+ * views observing their base list (see {@link FilteredList#observe(boolean)}),
+ * which find their positions themselves.
+ *
+ * @author Reda El Khattabi
+ */
+public class Partition<E, K> {
+
+	/**
+	 * the positions of the base elements of a class.
+	 */
+	private static class Positions {
+		private int[] values = new int[16];
+		private int count;
+	}
+
+	private List<E> baseList;
+
+	// the filtered list the views are stacked on, if any
+	private FilteredList<E> filter;
+
+	private Function<? super E, ? extends K> classifier;
+
+	// null when outdated
+	private Map<K, Positions> positions;
+
+	// detects the base list modifications
+	private BaseProbe<E> probe;
+
+	private Map<K, FilteredList<E>> views;
+
+	public Partition(List<E> baseList,
+			Function<? super E, ? extends K> classifier) {
+		if (baseList == null || classifier == null)
+			throw new NullPointerException();
+		if (baseList instanceof FilteredList) {
+			this.filter = (FilteredList<E>) baseList;
+			this.baseList = this.filter.getBaseList();
+		} else
+			this.baseList = baseList;
+		this.probe = new BaseProbe<E>(this.baseList);
+		this.classifier = classifier;
+		this.views = new HashMap<K, FilteredList<E>>();
+	}
+
+	/**
+	 * @return the view on the base elements of the given class.
+	 */
+	public FilteredList<E> get(K key) {
+		FilteredList<E> view = this.views.get(key);
+		if (view == null) {
+			view = this.view(key);
+			this.views.put(key, view);
+		}
+		return view;
+	}
+
+	/**
+	 * @return the classes of the base elements.
+	 */
+	public Set<K> keys() {
+		this.checkBase();
+		return Collections.unmodifiableSet(this.getPositions().keySet());
+	}
+
+	/**
+	 * Drops the positions of the elements of every class (and the ones cached
+	 * by the views), they will be computed again when needed.
+	 * <p>
+	 * Should be called when base elements are replaced (or modified) without
+	 * going through the views.
+	 */
+	public void invalidate() {
+		this.forget();
+		for (FilteredList<E> view : this.views.values())
+			view.invalidate();
+	}
+
+	/**
+	 * drops the positions of the elements of every class.
+	 */
+	private void forget() {
+		this.positions = null;
+		this.probe.stop();
+	}
+
+	private FilteredList<E> view(final K key) {
+		List<E> base = this.filter != null ? this.filter : this.baseList;
+		if (this.baseList instanceof RandomAccess)
+			return new RandomAccessFilteredList<E>(base) {
+				@Override
+				protected boolean verify(E element) {
+					return Partition.this.classify(key, element);
+				}
+
+				@Override
+				int[] knownMatches() {
+					return Partition.this.knownMatches(key);
+				}
+
+				@Override
+				public void invalidate() {
+					Partition.this.forget();
+					super.invalidate();
+				}
+			};
+		return new FilteredList<E>(base) {
+			@Override
+			protected boolean verify(E element) {
+				return Partition.this.classify(key, element);
+			}
+
+			@Override
+			int[] knownMatches() {
+				return Partition.this.knownMatches(key);
+			}
+
+			@Override
+			public void invalidate() {
+				Partition.this.forget();
+				super.invalidate();
+			}
+		};
+	}
+
+	private boolean classify(K key, E element) {
+		return Objects.equals(this.classifier.apply(element), key);
+	}
+
+	/**
+	 * Drops the positions if the base list was modified since they were
+	 * computed (see {@link FilteredList}).
+	 */
+	private void checkBase() {
+		if (this.probe.modified())
+			this.positions = null;
+		if (this.positions == null)
+			this.probe.start();
+	}
+
+	/**
+	 * @return the positions of the elements of every class, classifying the
+	 *         base elements if needed.
+	 */
+	private Map<K, Positions> getPositions() {
+		if (this.positions == null) {
+			Map<K, Positions> positions = new HashMap<K, Positions>();
+			int inindex = -1;
+			for (E e : this.baseList) {
+				++inindex;
+				if (this.filter != null && !this.filter.accepts(e))
+					continue;
+				K key = this.classifier.apply(e);
+				Positions p = positions.get(key);
+				if (p == null) {
+					p = new Positions();
+					positions.put(key, p);
+				}
+				if (p.count == p.values.length)
+					p.values = Arrays.copyOf(p.values, p.count * 2);
+				p.values[p.count++] = inindex;
+			}
+			this.positions = positions;
+		}
+		return this.positions;
+	}
+
+	/**
+	 * a copy of the positions of the elements of a class, for its view.
+	 */
+	private int[] knownMatches(K key) {
+		this.checkBase();
+		Positions p = this.getPositions().get(key);
+		return p == null ? new int[0] : Arrays.copyOf(p.values, p.count);
+	}
+}
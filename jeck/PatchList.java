@@ -0,0 +1,192 @@
+package jeck;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A list made of ranges of a base list, patched with local elements.
+ * <p>
+ * Only the ranges (and the local elements) are kept in memory, the base
+ * elements are read from the base list when needed. The base list can grow
+ * (but not change otherwise): {@link #extend()} appends its last element.
+ * <p>
+ * Accessing an element is O(log p) (where p is the number of pieces, which
+ * only grows with local modifications), modifying the list is O(p).
+ *
+ * @author Reda El Khattabi
+ */
+class PatchList<T> extends AbstractList<T> {
+
+	/**
+	 * either the base range [from, to) or a list of local elements
+	 */
+	private static class Piece<T> {
+		private int from;
+		private int to;
+		private List<T> local;
+
+		public Piece(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		public Piece(T e) {
+			this.local = new ArrayList<T>();
+			this.local.add(e);
+		}
+
+		public int size() {
+			return this.local == null ? this.to - this.from : this.local
+					.size();
+		}
+	}
+
+	private List<T> base;
+
+	private List<Piece<T>> pieces;
+
+	// index of the first element of each piece, null when outdated
+	private int[] starts;
+
+	private int size;
+
+	public PatchList(List<T> base) {
+		this.base = base;
+		this.pieces = new ArrayList<Piece<T>>();
+		this.starts = null;
+		this.size = 0;
+	}
+
+	/**
+	 * @return the index of the piece containing element i.
+	 */
+	private int locate(int i) {
+		if (i < 0 || i >= this.size)
+			throw new IndexOutOfBoundsException();
+		if (this.starts == null) {
+			this.starts = new int[this.pieces.size()];
+			int start = 0;
+			for (int p = 0; p < this.pieces.size(); ++p) {
+				this.starts[p] = start;
+				start += this.pieces.get(p).size();
+			}
+		}
+		int low = 0;
+		int high = this.pieces.size() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (this.starts[mid] <= i)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+		return low;
+	}
+
+	/**
+	 * splits base piece p so that a new piece starts at its element off.
+	 *
+	 * @return the index of the new piece.
+	 */
+	private int split(int p, int off) {
+		if (off == 0)
+			return p;
+		Piece<T> piece = this.pieces.get(p);
+		this.pieces.add(p + 1, new Piece<T>(piece.from + off, piece.to));
+		piece.to = piece.from + off;
+		return p + 1;
+	}
+
+	/**
+	 * appends the last element of the base list.
+	 */
+	public void extend() {
+		Piece<T> last = this.pieces.isEmpty() ? null : this.pieces
+				.get(this.pieces.size() - 1);
+		if (last != null && last.local == null
+				&& last.to == this.base.size() - 1)
+			++last.to;
+		else {
+			this.pieces.add(new Piece<T>(this.base.size() - 1, this.base
+					.size()));
+			this.starts = null;
+		}
+		++this.size;
+	}
+
+	@Override
+	public T get(int i) {
+		int p = this.locate(i);
+		Piece<T> piece = this.pieces.get(p);
+		if (piece.local != null)
+			return piece.local.get(i - this.starts[p]);
+		return this.base.get(piece.from + i - this.starts[p]);
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	@Override
+	public void add(int i, T e) {
+		if (i == this.size) {
+			Piece<T> last = this.pieces.isEmpty() ? null : this.pieces
+					.get(this.pieces.size() - 1);
+			if (last != null && last.local != null)
+				last.local.add(e);
+			else
+				this.pieces.add(new Piece<T>(e));
+		} else {
+			int p = this.locate(i);
+			Piece<T> piece = this.pieces.get(p);
+			if (piece.local != null)
+				piece.local.add(i - this.starts[p], e);
+			else if (i == this.starts[p] && p > 0
+					&& this.pieces.get(p - 1).local != null)
+				this.pieces.get(p - 1).local.add(e);
+			else
+				this.pieces.add(this.split(p, i - this.starts[p]),
+						new Piece<T>(e));
+		}
+		this.starts = null;
+		++this.size;
+		++this.modCount;
+	}
+
+	@Override
+	public T set(int i, T e) {
+		int p = this.locate(i);
+		Piece<T> piece = this.pieces.get(p);
+		if (piece.local != null)
+			return piece.local.set(i - this.starts[p], e);
+		T old = this.base.get(piece.from + i - this.starts[p]);
+		p = this.split(p, i - this.starts[p]);
+		this.split(p, 1);
+		this.pieces.set(p, new Piece<T>(e));
+		this.starts = null;
+		return old;
+	}
+
+	@Override
+	public T remove(int i) {
+		int p = this.locate(i);
+		Piece<T> piece = this.pieces.get(p);
+		T old;
+		if (piece.local != null)
+			old = piece.local.remove(i - this.starts[p]);
+		else {
+			old = this.base.get(piece.from + i - this.starts[p]);
+			p = this.split(p, i - this.starts[p]);
+			piece = this.pieces.get(p);
+			++piece.from;
+		}
+		if (piece.size() == 0)
+			this.pieces.remove(p);
+		this.starts = null;
+		--this.size;
+		++this.modCount;
+		return old;
+	}
+}
@@ -0,0 +1,64 @@
+package jeck;
+
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A {@link FilteredList} on a {@link RandomAccess} base list (such as an
+ * {@link java.util.ArrayList}).
+ * <p>
+ * Elements are accessed by index directly in the base list (using the cached
+ * positions of the matching elements), instead of going through list
+ * iterators, so {@link #get(int)} and {@link #size()} are constant time, and
+ * algorithms checking for {@link RandomAccess} (such as
+ * {@link java.util.Collections#binarySearch(List, Object)}) use their fast
+ * paths.
+ * 
+ * @author Reda El Khattabi
+ */
+public abstract class RandomAccessFilteredList<E> extends FilteredList<E>
+		implements RandomAccess {
+
+	public RandomAccessFilteredList(List<E> baseList) {
+		super(baseList);
+	}
+
+	@Override
+	public E get(int index) {
+		if (index == this.size())
+			throw new IndexOutOfBoundsException();
+		return this.getBaseList().get(this.getBaseIndex(index));
+	}
+
+	@Override
+	public E set(int index, E element) {
+		if (index == this.size())
+			throw new IndexOutOfBoundsException();
+		int baseIndex = this.getBaseIndex(index);
+		E e = this.admit(element);
+		E old = this.getBaseList().set(baseIndex, e);
+		// (the cached positions stay valid, unless e doesn't match)
+		if (!this.accepts(e))
+			this.baseChanged();
+		return old;
+	}
+
+	@Override
+	public void add(int index, E element) {
+		int baseIndex = this.getBaseIndex(index);
+		E e = this.admit(element);
+		this.getBaseList().add(baseIndex, e);
+		this.baseAdded(baseIndex, this.accepts(e));
+		++this.modCount;
+	}
+
+	@Override
+	public E remove(int index) {
+		if (index == this.size())
+			throw new IndexOutOfBoundsException();
+		E old = this.getBaseList().remove(this.getBaseIndex(index));
+		this.baseRemoved(index);
+		++this.modCount;
+		return old;
+	}
+}
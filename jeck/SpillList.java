@@ -0,0 +1,140 @@
+package jeck;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An append-only list stored in a memory-mapped file.
+ * <p>
+ * Elements are encoded by a {@link Codec} when they are added, and decoded
+ * straight from the mapped file every time they are read, so the list
+ * contents never live on the heap (only an index of their positions does).
+ * <p>
+ * Only {@link #add(Object)} is supported to modify the list (it can be used as
+ * the storage of fetched elements of a {@link FetchList}, see
+ * {@link FetchList#spill(List)}).
+ *
+ * @author Reda El Khattabi
+ */
+public class SpillList<T> extends AbstractList<T> implements Closeable {
+
+	/**
+	 * Converts elements to and from bytes.
+	 */
+	public static interface Codec<T> {
+
+		/**
+		 * @return the bytes representing the element.
+		 */
+		byte[] encode(T element);
+
+		/**
+		 * Decodes an element from the given buffer, which is a read-only view
+		 * on the mapped file, containing exactly the bytes returned by
+		 * {@link #encode(Object)}.
+		 */
+		T decode(ByteBuffer buffer);
+	}
+
+	private static final int REGION_SIZE = 64 << 20;
+
+	private static final int INDEX_BITS = 16;
+
+	private Codec<T> codec;
+
+	private RandomAccessFile file;
+
+	private List<MappedByteBuffer> regions;
+
+	// where the next region starts in the file
+	private long end;
+
+	// position of each element: (region << 32) | offset in region, by chunks
+	// (so growing it doesn't need to copy it all)
+	private long[][] index;
+
+	private int size;
+
+	/**
+	 * Creates an empty list in the given file (any previous content is lost).
+	 */
+	public SpillList(File file, Codec<T> codec) throws IOException {
+		this.codec = codec;
+		this.file = new RandomAccessFile(file, "rw");
+		this.file.setLength(0);
+		this.regions = new ArrayList<MappedByteBuffer>();
+		this.end = 0;
+		this.index = new long[16][];
+		this.size = 0;
+	}
+
+	@Override
+	public boolean add(T e) {
+		byte[] b = this.codec.encode(e);
+		MappedByteBuffer region = null;
+		if (!this.regions.isEmpty()) {
+			region = this.regions.get(this.regions.size() - 1);
+			if (region.remaining() < b.length + 4)
+				region = null;
+		}
+		if (region == null)
+			try {
+				int size = Math.max(SpillList.REGION_SIZE, b.length + 4);
+				region = this.file.getChannel().map(
+						FileChannel.MapMode.READ_WRITE, this.end, size);
+				this.end += size;
+				this.regions.add(region);
+			} catch (IOException e1) {
+				throw new IllegalStateException(e1);
+			}
+		int chunk = this.size >>> SpillList.INDEX_BITS;
+		if (chunk == this.index.length)
+			this.index = Arrays.copyOf(this.index, chunk * 2);
+		if (this.index[chunk] == null)
+			this.index[chunk] = new long[1 << SpillList.INDEX_BITS];
+		long position = (long) (this.regions.size() - 1) << 32
+				| region.position();
+		this.index[chunk][this.size & ((1 << SpillList.INDEX_BITS) - 1)] = position;
+		++this.size;
+		region.putInt(b.length);
+		region.put(b);
+		++this.modCount;
+		return true;
+	}
+
+	@Override
+	public T get(int i) {
+		if (i < 0 || i >= this.size)
+			throw new IndexOutOfBoundsException();
+		long p = this.index[i >>> SpillList.INDEX_BITS][i
+				& ((1 << SpillList.INDEX_BITS) - 1)];
+		ByteBuffer b = this.regions.get((int) (p >>> 32)).asReadOnlyBuffer();
+		int position = (int) p;
+		b.limit(position + 4 + b.getInt(position));
+		b.position(position + 4);
+		return this.codec.decode(b.slice());
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Closes the underlying file. The list can't be used afterwards.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.regions.clear();
+		this.file.close();
+	}
+}